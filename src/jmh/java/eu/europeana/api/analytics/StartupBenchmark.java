@@ -0,0 +1,80 @@
+package eu.europeana.api.analytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup time of the generator, from launching the JVM until it exits after a training run (the application
+ * context is started, no task is executed). Compares the plain thin jar with Spring AOT and with AOT plus the
+ * AppCDS archive, all built by the startup profile.
+ * Run with <code>mvn -Pstartup,benchmark package exec:exec -Djmh.args=StartupBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({ "jar", "aot", "aot-cds" })
+    private String mode;
+
+    @Param("target/analytics-startup")
+    private String build;
+
+    private List<String> command;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path jar     = Path.of(build + ".jar");
+        Path archive = Path.of(build + ".jsa");
+        if (!Files.exists(jar)) {
+            throw new IOException(jar + " not found, build it with mvn -Pstartup package");
+        }
+        command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (mode.startsWith("aot")) {
+            command.add("-Dspring.aot.enabled=true");
+        }
+        if (mode.endsWith("cds")) {
+            if (!Files.exists(archive)) {
+                throw new IOException(archive + " not found, build it with mvn -Pstartup package");
+            }
+            command.add("-XX:SharedArchiveFile=" + archive);
+        }
+        command.add("-jar");
+        command.add(jar.toString());
+        command.add("--startup.training.run=true");
+    }
+
+    @Benchmark
+    public int startup() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.to(new File("target/startup-benchmark.err")))
+                .start();
+        int exit = process.waitFor();
+        if (exit != 0) {
+            throw new IllegalStateException("Startup failed with exit code " + exit + ", see target/startup-benchmark.err");
+        }
+        return exit;
+    }
+}
@@ -0,0 +1,141 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.model.ClientType;
+import eu.europeana.api.analytics.model.DayIndex;
+import eu.europeana.api.analytics.model.RegisteredClients;
+import eu.europeana.api.analytics.utils.CsvWriter;
+import eu.europeana.api.commons.definitions.statistics.user.ELKMetric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the monthly apikey statistics pipeline, over a synthetic Elastic search response:
+ * parsing the response into the apikey statistics (what getStats does once the response is received),
+ * classifying the apikeys, aggregating the regular customers and users, and printing the csv.
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec</code>, see the benchmark profile in the pom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class ApiKeyStatsBenchmark {
+
+    private static final int CALLS_PER_DAY = 5;
+    private static final int ACTIVE_DAYS   = 5;
+
+    @Param({ "1000", "100000", "1000000" })
+    private int keys;
+
+    @Param({ "28", "31" })
+    private int days;
+
+    private Path                    response;
+    private ApiKeyAggregationParser parser;
+    private ClientRegistry          registry;
+    private List<String>            apikeys;
+    private List<ApiKeyStats>       stats;
+    private DayIndex                dayIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticAggregationResponse synthetic = new SyntheticAggregationResponse(keys, days, 42L);
+        response = Files.createTempFile("apikeys-" + keys + "-" + days, ".json");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(response))) {
+            synthetic.write(out);
+        }
+        parser  = new ApiKeyAggregationParser(new JsonFactory());
+        apikeys = synthetic.getApiKeys();
+
+        // 2% project and 0.5% internal clients
+        List<String> projects = new ArrayList<>();
+        List<String> internal = new ArrayList<>();
+        for (int k = 0; k < apikeys.size(); k++) {
+            if (k % 200 == 0) {
+                internal.add(apikeys.get(k));
+            } else if (k % 50 == 0) {
+                projects.add(apikeys.get(k));
+            }
+        }
+        RegisteredClients registeredClients = new RegisteredClients();
+        registeredClients.setProjects(projects);
+        registeredClients.setInternal(internal);
+        registry = ClientRegistry.of(registeredClients);
+
+        ApiKeyStatsBuilder builder = parse();
+        stats    = builder.build();
+        dayIndex = builder.getDays();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(response);
+    }
+
+    @Benchmark
+    public List<ApiKeyStats> getStats() throws IOException {
+        return parse().build();
+    }
+
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        for (String apikey : apikeys) {
+            ClientType type = registry.classify(apikey);
+            blackhole.consume(type);
+        }
+    }
+
+    @Benchmark
+    public ELKMetric getRegular() {
+        return ApiKeyUsageAggregator.aggregate(stats, registry, dayIndex.size(), CALLS_PER_DAY, ACTIVE_DAYS, false)
+                .toELKMetric();
+    }
+
+    @Benchmark
+    public ELKMetric getRegularParallel() {
+        return ApiKeyUsageAggregator.aggregate(stats, registry, dayIndex.size(), CALLS_PER_DAY, ACTIVE_DAYS, true)
+                .toELKMetric();
+    }
+
+    @Benchmark
+    public void printCSV() throws IOException {
+        try (CsvWriter csv = new CsvWriter(OutputStream.nullOutputStream(), false)) {
+            ApiKeyStatsService.printCSV(stats, dayIndex, csv);
+        }
+    }
+
+    private ApiKeyStatsBuilder parse() throws IOException {
+        ApiKeyStatsBuilder builder = new ApiKeyStatsBuilder(CALLS_PER_DAY);
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(response), 64 * 1024)) {
+            parser.parse(in, builder);
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,101 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.jayway.jsonpath.JsonPath;
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.DayIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Before/after benchmark of building the apikey statistics from the Elastic search response.
+ * <code>jsonPath</code> is the original implementation: the response is read with JsonPath and the count of every
+ * date of every apikey is looked up with a JsonPath filter. <code>positional</code> is the current one: the response
+ * is streamed and the sorted date buckets of every apikey are resolved positionally against the day index.
+ * The JsonPath lookups are quadratic in the days, so the key counts are kept lower than in ApiKeyStatsBenchmark.
+ * Run with <code>mvn -Pbenchmark test-compile exec:exec -Djmh.args=DateBucketBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class DateBucketBenchmark {
+
+    private static final int CALLS_PER_DAY = 5;
+
+    @Param({ "1000", "10000" })
+    private int keys;
+
+    @Param({ "31" })
+    private int days;
+
+    private byte[] response;
+    private String json;
+    private ApiKeyAggregationParser parser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SyntheticAggregationResponse(keys, days, 42L).write(out);
+        response = out.toByteArray();
+        json     = new String(response, StandardCharsets.UTF_8);
+        parser   = new ApiKeyAggregationParser(new JsonFactory());
+    }
+
+    @Benchmark
+    public List<ApiKeyStats> positional() throws IOException {
+        ApiKeyStatsBuilder builder = new ApiKeyStatsBuilder(CALLS_PER_DAY);
+        parser.parse(new ByteArrayInputStream(response), builder);
+        return builder.build();
+    }
+
+    @Benchmark
+    @SuppressWarnings({ "rawtypes", "java:S3740" })
+    public List<ApiKeyStats> jsonPath() {
+        Map apikeys = JsonPath.read(json, "$.aggregations.apikeys");
+        List<String> dates = JsonPath.read(apikeys, "$.buckets[*].date.buckets[*].key_as_string");
+        List<Map> buckets = JsonPath.read(apikeys, "$.buckets");
+
+        DayIndex dayIndex = new DayIndex(new TreeSet<>(dates));
+        List<ApiKeyStats> list = new ArrayList<>(buckets.size());
+        for (Map bucket : buckets) {
+            int total  = 0;
+            int active = 0;
+            ApiKeyStats apikey = new ApiKeyStats((String) bucket.get("key"), dayIndex);
+            for (int day = 0; day < dayIndex.size(); day++) {
+                List b = JsonPath.read(bucket, "$.date.buckets[?(@.key_as_string=='" + dayIndex.getDay(day) + "')]");
+                int count = (b.isEmpty() ? 0 : (Integer) ((Map) b.get(0)).get("doc_count"));
+                apikey.setCount(day, count);
+
+                active += (count >= CALLS_PER_DAY ? 1 : 0);
+                total  += count;
+            }
+            apikey.setTotal(total);
+            apikey.setActive(active);
+            list.add(apikey);
+        }
+        return list;
+    }
+}
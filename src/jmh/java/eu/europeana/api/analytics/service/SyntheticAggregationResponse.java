@@ -0,0 +1,99 @@
+package eu.europeana.api.analytics.service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates an Elastic search apikeys terms aggregation response, shaped like the response of the monthly
+ * apikey statistics query, for a given number of keys and days.
+ * The usage is skewed like the real traffic: most keys are active on a few days with few calls,
+ * a few keys are active every day with many calls. The same seed always generates the same response.
+ */
+public class SyntheticAggregationResponse {
+
+    private final int  keys;
+    private final int  days;
+    private final long seed;
+
+    /**
+     * Constructor
+     * @param keys number of apikeys
+     * @param days number of days, starting on the first of a month
+     * @param seed seed of the generated usage
+     */
+    public SyntheticAggregationResponse(int keys, int days, long seed) {
+        this.keys = keys;
+        this.days = days;
+        this.seed = seed;
+    }
+
+    /**
+     * @return the apikeys of the response, in response order
+     */
+    public List<String> getApiKeys() {
+        List<String> apikeys = new ArrayList<>(keys);
+        for (int k = 0; k < keys; k++) {
+            apikeys.add(getApiKey(k));
+        }
+        return apikeys;
+    }
+
+    /**
+     * Writes the response
+     * @param out target of the json response
+     * @throws IOException if the response could not be written
+     */
+    public void write(OutputStream out) throws IOException {
+        LocalDate first = LocalDate.of(2025, 1, 1);
+        String[] dates  = new String[days];
+        long[]   millis = new long[days];
+        for (int d = 0; d < days; d++) {
+            dates[d]  = first.plusDays(d).toString();
+            millis[d] = first.plusDays(d).atStartOfDay().toInstant(ZoneOffset.UTC).toEpochMilli();
+        }
+
+        Random random = new Random(seed);
+        Writer json = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        json.write("{\"took\":1234,\"timed_out\":false,\"hits\":{\"total\":{\"value\":10000,\"relation\":\"gte\"},\"hits\":[]},");
+        json.write("\"aggregations\":{\"apikeys\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,\"buckets\":[");
+        StringBuilder buckets = new StringBuilder();
+        for (int k = 0; k < keys; k++) {
+            double activity = Math.pow(random.nextDouble(), 3);
+            int    volume   = 1 + (int) (2000 * Math.pow(random.nextDouble(), 4));
+            // the terms aggregation only returns keys with at least one call
+            int    anchor   = random.nextInt(days);
+            long   total    = 0;
+            buckets.setLength(0);
+            for (int d = 0; d < days; d++) {
+                if (d != anchor && random.nextDouble() > activity) {
+                    continue;
+                }
+                int count = 1 + random.nextInt(volume);
+                total += count;
+                buckets.append(buckets.length() == 0 ? "" : ",")
+                        .append("{\"key_as_string\":\"").append(dates[d])
+                        .append("\",\"key\":").append(millis[d])
+                        .append(",\"doc_count\":").append(count).append('}');
+            }
+            json.write(k == 0 ? "" : ",");
+            json.write("{\"key\":\"" + getApiKey(k) + "\",\"doc_count\":" + total + ",\"date\":{\"buckets\":[");
+            json.write(buckets.toString());
+            json.write("]}}");
+        }
+        json.write("]}}}");
+        json.flush();
+    }
+
+    private static String getApiKey(int k) {
+        return String.format("key%07d", k);
+    }
+}
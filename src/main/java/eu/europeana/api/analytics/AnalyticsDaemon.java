@@ -0,0 +1,191 @@
+package eu.europeana.api.analytics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import eu.europeana.api.analytics.config.AnalyticsApiConfig;
+import eu.europeana.api.analytics.service.AnalyticsService;
+import eu.europeana.api.analytics.service.RunMetrics;
+import eu.europeana.api.analytics.utils.AtomicFiles;
+import eu.europeana.api.analytics.utils.RunLock;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.Map;
+
+import static eu.europeana.api.analytics.utils.Constants.RUN_METRICS;
+
+/**
+ * Keeps the generator running and executes the daily and the monthly task on cron schedules, so the runs
+ * reuse the authentication, the open connections and the compiled code of the previous runs instead of
+ * starting a new JVM every day.
+ * The runs are executed one after the other on a single thread, and under the run lock so a one-shot run
+ * started meanwhile can not overlap with them. The last successful run of every task is kept in the state
+ * file, a run missed while the daemon was down is executed once at startup.
+ */
+@Component
+public class AnalyticsDaemon {
+
+    private static final Logger LOG = LogManager.getLogger(AnalyticsDaemon.class);
+
+    private static final String DAILY   = "daily";
+    private static final String MONTHLY = "monthly";
+    private static final int    SHUTDOWN_TIMEOUT_SECONDS = 300;
+
+    @Resource
+    private AnalyticsApiConfig analyticsApiConfig;
+
+    @Resource(name = RUN_METRICS)
+    private RunMetrics runMetrics;
+
+    private final AnalyticsService analyticsService;
+    private final ObjectMapper     mapper;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    /**
+     * Constructor
+     * @param analyticsService analytics service executing the tasks
+     * @param mapper mapper to read and write the state file
+     */
+    @Autowired
+    public AnalyticsDaemon(AnalyticsService analyticsService, ObjectMapper mapper) {
+        this.analyticsService = analyticsService;
+        this.mapper           = mapper;
+    }
+
+    /**
+     * Schedules the daily and the monthly task, after executing the runs missed since the last start
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("analytics-daemon-");
+        scheduler.setWaitForTasksToCompleteOnShutdown(true);
+        scheduler.setAwaitTerminationSeconds(SHUTDOWN_TIMEOUT_SECONDS);
+        scheduler.initialize();
+
+        ZoneId zone = analyticsApiConfig.getDaemonZone();
+        // the monthly task is scheduled first, so that a caught up monthly run precedes the daily one
+        schedule(MONTHLY, analyticsApiConfig.getDaemonMonthlyCron(), zone, () -> {
+            runMetrics.time("daily_ingestion", analyticsService::executeDailyIngestion);
+            runMetrics.time("monthly_task", analyticsService::executeMonthlyTask);
+        });
+        schedule(DAILY, analyticsApiConfig.getDaemonDailyCron(), zone, () -> {
+            runMetrics.time("daily_ingestion", analyticsService::executeDailyIngestion);
+            runMetrics.time("daily_task", analyticsService::executeDailyTask);
+        });
+    }
+
+    /**
+     * Waits for the current run, if any, and stops the scheduler
+     */
+    @PreDestroy
+    public synchronized void stop() {
+        if (scheduler != null) {
+            LOG.info("Stopping the analytics daemon......");
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    private void schedule(String name, String expression, ZoneId zone, RunMetrics.Task<Exception> task) {
+        CronExpression cron = CronExpression.parse(expression);
+        Instant lastRun = getLastRun(name);
+        if (lastRun == null) {
+            // first start, there is nothing to catch up
+            saveLastRun(name, Instant.now());
+        } else {
+            ZonedDateTime missed = cron.next(lastRun.atZone(zone));
+            if (missed != null && !missed.toInstant().isAfter(Instant.now())) {
+                LOG.info("Catching up the {} run scheduled at {}", name, missed);
+                scheduler.execute(() -> execute(name, task));
+            }
+        }
+        scheduler.schedule(() -> execute(name, task), new CronTrigger(expression, zone));
+        LOG.info("Scheduled the {} run with '{}', next run at {}", name, expression, cron.next(ZonedDateTime.now(zone)));
+    }
+
+    private void execute(String name, RunMetrics.Task<Exception> task) {
+        Instant started = Instant.now();
+        File lockFile = analyticsApiConfig.getRunLockFile();
+        try (RunLock lock = RunLock.tryAcquire(lockFile)) {
+            if (lock == null) {
+                LOG.warn("Skipping the {} run, another run holds the lock {}", name, lockFile);
+                return;
+            }
+            LOG.info("Executing the {} run......", name);
+            runMetrics.start(name);
+            boolean success = false;
+            try {
+                task.run();
+                success = true;
+            } finally {
+                runMetrics.finish(success);
+            }
+            saveLastRun(name, started);
+        } catch (Exception e) {
+            // the run is retried at its next schedule, or caught up at the next start
+            LOG.error("The {} run failed - {}", name, e.getMessage(), e);
+        }
+    }
+
+    private Instant getLastRun(String name) {
+        JsonNode lastRun = readState().path(name);
+        try {
+            return lastRun.isTextual() ? Instant.parse(lastRun.asText()) : null;
+        } catch (DateTimeParseException e) {
+            LOG.warn("Ignoring the invalid last {} run {} - {}", name, lastRun, e.getMessage());
+            return null;
+        }
+    }
+
+    private synchronized void saveLastRun(String name, Instant lastRun) {
+        File file = analyticsApiConfig.getDaemonStateFile();
+        if (file == null) {
+            return;
+        }
+        ObjectNode state = mapper.createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = readState().fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            state.set(field.getKey(), field.getValue());
+        }
+        state.put(name, lastRun.toString());
+        try {
+            AtomicFiles.write(file.toPath(), tmp -> mapper.writeValue(tmp.toFile(), state));
+        } catch (IOException e) {
+            LOG.warn("Error saving the daemon state {} - {}", file, e.getMessage());
+        }
+    }
+
+    private JsonNode readState() {
+        File file = analyticsApiConfig.getDaemonStateFile();
+        if (file == null || !file.exists()) {
+            return mapper.createObjectNode();
+        }
+        try {
+            return mapper.readTree(file);
+        } catch (IOException e) {
+            LOG.warn("Error reading the daemon state {}, no runs are caught up - {}", file, e.getMessage());
+            return mapper.createObjectNode();
+        }
+    }
+}
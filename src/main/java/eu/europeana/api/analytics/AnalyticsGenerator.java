@@ -2,6 +2,8 @@ package eu.europeana.api.analytics;
 
 import eu.europeana.api.analytics.config.AnalyticsApiConfig;
 import eu.europeana.api.analytics.service.AnalyticsService;
+import eu.europeana.api.analytics.service.RunMetrics;
+import eu.europeana.api.analytics.utils.RunLock;
 import jakarta.annotation.Resource;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
@@ -28,23 +30,74 @@ public class AnalyticsGenerator implements CommandLineRunner{
     @Resource
     private AnalyticsApiConfig analyticsApiConfig;
 
+    @Autowired
+    private RunMetrics runMetrics;
+
+    @Autowired
+    private AnalyticsDaemon analyticsDaemon;
+
     @Override
     public void run(String... args) throws Exception {
-        if (StringUtils.isEmpty(analyticsApiConfig.getDataboxToken())) {
-            throw new IllegalArgumentException("Databox token cannot be empty!");
+        if (analyticsApiConfig.isStartupTrainingRun()) {
+            LOG.info("Startup training run, exiting without executing any task");
+            return;
+        }
+        if (analyticsApiConfig.isDaemonEnabled() && !analyticsApiConfig.isThresholdReportOnly()
+                && !analyticsApiConfig.isDataboxOutboxReplay()) {
+            checkDataboxToken();
+            LOG.info("Starting the analytics daemon......");
+            analyticsDaemon.start();
+            return;
         }
+        try (RunLock lock = RunLock.tryAcquire(analyticsApiConfig.getRunLockFile())) {
+            if (lock == null) {
+                throw new IllegalStateException("Another run holds the lock " + analyticsApiConfig.getRunLockFile());
+            }
+            boolean success = false;
+            try {
+                execute();
+                success = true;
+            } finally {
+                runMetrics.finish(success);
+            }
+        }
+    }
+
+    private void execute() throws Exception {
+        if (analyticsApiConfig.isThresholdReportOnly()) {
+            LOG.info("Generating the apikey threshold report......");
+            runMetrics.start("threshold_report");
+            runMetrics.time("daily_ingestion", analyticsService::executeDailyIngestion);
+            runMetrics.time("threshold_report", analyticsService::executeThresholdReport);
+            return;
+        }
+        checkDataboxToken();
+        if (analyticsApiConfig.isDataboxOutboxReplay()) {
+            LOG.info("Replaying the undelivered databox push requests......");
+            runMetrics.start("outbox_replay");
+            runMetrics.time("outbox_replay", analyticsService::executeOutboxReplay);
+            return;
+        }
+        runMetrics.start("daily");
+        runMetrics.time("daily_ingestion", analyticsService::executeDailyIngestion);
         if (executeMonthlyUpdates()) {
             LOG.info("{} day of the Month [{}]. Executing monthly updates.", analyticsApiConfig.getDayOfMonth(), ZonedDateTime.now());
-            analyticsService.executeMonthlyTask();
+            runMetrics.time("monthly_task", analyticsService::executeMonthlyTask);
         }
         LOG.info("Executing daily updates......");
-        analyticsService.executeDailyTask();
+        runMetrics.time("daily_task", analyticsService::executeDailyTask);
     }
 
     public static void main(String[] args) {
         new SpringApplicationBuilder().sources(AnalyticsGenerator.class).web(WebApplicationType.NONE).run(args);
     }
 
+    private void checkDataboxToken() {
+        if (StringUtils.isEmpty(analyticsApiConfig.getDataboxToken())) {
+            throw new IllegalArgumentException("Databox token cannot be empty!");
+        }
+    }
+
     /**
      * Returns true if day of the month matches with configured day
      * @return
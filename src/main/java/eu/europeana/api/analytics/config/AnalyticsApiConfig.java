@@ -3,28 +3,59 @@ package eu.europeana.api.analytics.config;
 import com.databox.sdk.Databox;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import eu.europeana.api.analytics.service.ApiKeyUsageStore;
 import eu.europeana.api.analytics.service.ClientsServiceConnection;
+import eu.europeana.api.analytics.service.DataboxOutbox;
 import eu.europeana.api.analytics.service.ElasticSearchConnection;
+import eu.europeana.api.analytics.service.KpiValueStore;
+import eu.europeana.api.analytics.service.ResponseCache;
+import eu.europeana.api.analytics.service.RunMetrics;
+import eu.europeana.api.analytics.service.StreamingHttpConnection;
 import eu.europeana.api.commons.auth.AuthenticationBuilder;
 import eu.europeana.api.commons.auth.AuthenticationConfig;
 import eu.europeana.api.commons.auth.AuthenticationHandler;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.Primary;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility.NONE;
+import static eu.europeana.api.analytics.utils.Constants.APIKEY_USAGE_STORE;
 import static eu.europeana.api.analytics.utils.Constants.DATABOX;
+import static eu.europeana.api.analytics.utils.Constants.DATABOX_OUTBOX;
 import static eu.europeana.api.analytics.utils.Constants.ELASTIC_SEARCH_CONNECTION;
+import static eu.europeana.api.analytics.utils.Constants.HTTP_CONNECTION;
+import static eu.europeana.api.analytics.utils.Constants.KPI_VALUE_STORE;
 import static eu.europeana.api.analytics.utils.Constants.REGISTERED_CLIENT_CONNECTION;
+import static eu.europeana.api.analytics.utils.Constants.RESPONSE_CACHE;
+import static eu.europeana.api.analytics.utils.Constants.RUN_METRICS;
+import static eu.europeana.api.analytics.utils.Constants.STATS_HTTP_CONNECTION;
 import static eu.europeana.api.analytics.utils.Constants.ANALYTICS_API_AUTH;
 
 /**
@@ -34,6 +65,9 @@ import static eu.europeana.api.analytics.utils.Constants.ANALYTICS_API_AUTH;
 @Configuration
 public class AnalyticsApiConfig {
 
+    // pooled connections idle for longer are checked before they are reused
+    private static final TimeValue VALIDATE_AFTER_INACTIVITY = TimeValue.ofSeconds(2);
+
     @Value("${set.api.stats.url}")
     private String setApiStatsUrl;
 
@@ -58,24 +92,162 @@ public class AnalyticsApiConfig {
     @Value("${databox.token}")
     private String databoxToken;
 
+    @Value("${databox.push.max.payload.bytes: 102400}")
+    private int databoxMaxPayloadBytes;
+
+    @Value("${databox.push.concurrency: 4}")
+    private int databoxPushConcurrency;
+
+    @Value("${databox.push.max.attempts: 3}")
+    private int databoxPushMaxAttempts;
+
+    @Value("${databox.push.backoff.initial.ms: 500}")
+    private long databoxPushInitialBackoffMillis;
+
+    @Value("${databox.push.backoff.max.ms: 10000}")
+    private long databoxPushMaxBackoffMillis;
+
+    @Value("${databox.outbox.file: }")
+    private String databoxOutboxFile;
+
+    @Value("${databox.outbox.replay: false}")
+    private boolean databoxOutboxReplay;
+
+    @Value("${databox.kpi.store.file: }")
+    private String databoxKpiStoreFile;
+
+    @Value("${databox.kpi.heartbeat.hours: 168}")
+    private long databoxKpiHeartbeatHours;
+
+    @Value("${stats.response.cache.dir: }")
+    private String responseCacheDir;
+
+    @Value("${apikey.store.dir: }")
+    private String apiKeyStoreDir;
+
+    @Value("${apikey.store.retention.days: 62}")
+    private int apiKeyStoreRetentionDays;
+
+    @Value("${apikey.rolling.windows: 7,30}")
+    private String rollingWindows;
+
+    @Value("${apikey.rolling.clients.cache.hours: 168}")
+    private long rollingClientsCacheHours;
+
+    @Value("${apikey.threshold.report.file: }")
+    private String thresholdReportFile;
+
+    @Value("${apikey.threshold.report.max.calls.per.day: 20}")
+    private int thresholdReportMaxCallsPerDay;
+
+    @Value("${apikey.threshold.report.only: false}")
+    private boolean thresholdReportOnly;
+
     @Value("${elastic.search.url}")
     private String elasticSearchUrl;
 
     @Value("${es.request.body.file.name}")
     private String esBodyFileName;
 
+    @Value("${es.paging.enabled: false}")
+    private boolean esPagingEnabled;
+
+    @Value("${es.paging.size: 10000}")
+    private int esPageSize;
+
+    @Value("${es.slice.unit: none}")
+    private String esSliceUnit;
+
+    @Value("${es.slice.parallelism: 4}")
+    private int esSliceParallelism;
+
     @Value("${calls.per.day}")
     private int callsPerDay;
 
     @Value("${active.days}")
     private int activeDays;
 
+    @Value("${apikey.stats.parallel.threshold: 100000}")
+    private int parallelAggregationThreshold;
+
     @Value("${apikey_dates.csv.file.location}")
     private String apiKeyAndDatesCsvFile;
 
+    @Value("${apikey_dates.csv.gzip: false}")
+    private boolean apiKeyAndDatesCsvGzip;
+
+    @Value("${apikey_dates.matrix.file.location: }")
+    private String apiKeyMatrixFile;
+
     @Value("${monthly.schedule: 1}")
     private int dayOfMonth;
 
+    @Value("${daily.fetch.concurrent: false}")
+    private boolean dailyFetchConcurrent;
+
+    @Value("${daily.fetch.timeout.seconds: 600}")
+    private long dailyFetchTimeoutSeconds;
+
+    @Value("${http.pool.max.total: 20}")
+    private int httpPoolMaxTotal;
+
+    @Value("${http.pool.max.per.route: 10}")
+    private int httpPoolMaxPerRoute;
+
+    @Value("${http.pool.idle.timeout.seconds: 60}")
+    private long httpPoolIdleTimeoutSeconds;
+
+    @Value("${http.connect.timeout.ms: 10000}")
+    private long httpConnectTimeoutMillis;
+
+    @Value("${http.read.timeout.ms: 120000}")
+    private long httpReadTimeoutMillis;
+
+    @Value("${stats.http.connect.timeout.ms: }")
+    private String statsConnectTimeoutMillis;
+
+    @Value("${stats.http.read.timeout.ms: }")
+    private String statsReadTimeoutMillis;
+
+    @Value("${es.http.connect.timeout.ms: }")
+    private String esConnectTimeoutMillis;
+
+    @Value("${es.http.read.timeout.ms: }")
+    private String esReadTimeoutMillis;
+
+    @Value("${keycloak.http.connect.timeout.ms: }")
+    private String keycloakConnectTimeoutMillis;
+
+    @Value("${keycloak.http.read.timeout.ms: }")
+    private String keycloakReadTimeoutMillis;
+
+    @Value("${daemon.enabled: false}")
+    private boolean daemonEnabled;
+
+    @Value("${daemon.daily.cron: 0 0 2 * * *}")
+    private String daemonDailyCron;
+
+    @Value("${daemon.monthly.cron: }")
+    private String daemonMonthlyCron;
+
+    @Value("${daemon.zone: }")
+    private String daemonZone;
+
+    @Value("${daemon.state.file: }")
+    private String daemonStateFile;
+
+    @Value("${run.lock.file: }")
+    private String runLockFile;
+
+    @Value("${startup.training.run: false}")
+    private boolean startupTrainingRun;
+
+    @Value("${metrics.textfile: }")
+    private String metricsTextFile;
+
+    @Value("${metrics.summary.file: }")
+    private String metricsSummaryFile;
+
     public String getSetApiStatsUrl() {
         return setApiStatsUrl;
     }
@@ -100,10 +272,114 @@ public class AnalyticsApiConfig {
         return databoxToken;
     }
 
+    public int getDataboxMaxPayloadBytes() {
+        return databoxMaxPayloadBytes;
+    }
+
+    public int getDataboxPushConcurrency() {
+        return databoxPushConcurrency;
+    }
+
+    public int getDataboxPushMaxAttempts() {
+        return databoxPushMaxAttempts;
+    }
+
+    public long getDataboxPushInitialBackoffMillis() {
+        return databoxPushInitialBackoffMillis;
+    }
+
+    public long getDataboxPushMaxBackoffMillis() {
+        return databoxPushMaxBackoffMillis;
+    }
+
+    public File getDataboxOutboxFile() {
+        return StringUtils.isBlank(databoxOutboxFile) ? null : new File(databoxOutboxFile.trim());
+    }
+
+    public boolean isDataboxOutboxReplay() {
+        return databoxOutboxReplay;
+    }
+
+    public File getDataboxKpiStoreFile() {
+        return StringUtils.isBlank(databoxKpiStoreFile) ? null : new File(databoxKpiStoreFile.trim());
+    }
+
+    public Duration getDataboxKpiHeartbeat() {
+        return Duration.ofHours(databoxKpiHeartbeatHours);
+    }
+
+    public File getResponseCacheDir() {
+        return StringUtils.isBlank(responseCacheDir) ? null : new File(responseCacheDir.trim());
+    }
+
+    public File getApiKeyStoreDir() {
+        return StringUtils.isBlank(apiKeyStoreDir) ? null : new File(apiKeyStoreDir.trim());
+    }
+
+    public int getApiKeyStoreRetentionDays() {
+        return apiKeyStoreRetentionDays;
+    }
+
+    public File getThresholdReportFile() {
+        return StringUtils.isBlank(thresholdReportFile) ? null : new File(thresholdReportFile.trim());
+    }
+
+    public int getThresholdReportMaxCallsPerDay() {
+        return thresholdReportMaxCallsPerDay;
+    }
+
+    public boolean isThresholdReportOnly() {
+        return thresholdReportOnly;
+    }
+
+    /**
+     * @return lengths in days of the rolling usage windows pushed daily
+     */
+    public List<Integer> getRollingWindows() {
+        List<Integer> windows = new ArrayList<>();
+        for (String days : StringUtils.split(StringUtils.defaultString(rollingWindows), ", ")) {
+            windows.add(Integer.parseInt(days));
+        }
+        return windows;
+    }
+
+    /**
+     * @return how long the registered clients fetched from Keycloak are reused for the rolling usage windows
+     */
+    public Duration getRollingClientsCacheTtl() {
+        return Duration.ofHours(rollingClientsCacheHours);
+    }
+
     public String getElasticSearchUrl() {
         return elasticSearchUrl;
     }
 
+    public boolean isEsPagingEnabled() {
+        return esPagingEnabled;
+    }
+
+    public int getEsPageSize() {
+        return esPageSize;
+    }
+
+    /**
+     * Returns the length of the time slices the monthly Elastic search query is split in
+     * @return days or weeks, null if the month is fetched in one query
+     */
+    public ChronoUnit getEsSliceUnit() {
+        if (StringUtils.equalsIgnoreCase(StringUtils.trim(esSliceUnit), "day")) {
+            return ChronoUnit.DAYS;
+        }
+        if (StringUtils.equalsIgnoreCase(StringUtils.trim(esSliceUnit), "week")) {
+            return ChronoUnit.WEEKS;
+        }
+        return null;
+    }
+
+    public int getEsSliceParallelism() {
+        return esSliceParallelism;
+    }
+
     public int getCallsPerDay() {
         return callsPerDay;
     }
@@ -112,6 +388,10 @@ public class AnalyticsApiConfig {
         return activeDays;
     }
 
+    public int getParallelAggregationThreshold() {
+        return parallelAggregationThreshold;
+    }
+
     private String getEsBodyFileName() {
         return "/" + esBodyFileName;
     }
@@ -120,10 +400,101 @@ public class AnalyticsApiConfig {
         return StringUtils.isEmpty(apiKeyAndDatesCsvFile) ? null : new File(apiKeyAndDatesCsvFile);
     }
 
+    public boolean isApiKeyAndDatesCsvGzip() {
+        return apiKeyAndDatesCsvGzip;
+    }
+
+    public File getApiKeyMatrixFile() {
+        return StringUtils.isBlank(apiKeyMatrixFile) ? null : new File(apiKeyMatrixFile.trim());
+    }
+
     public int getDayOfMonth() {
         return dayOfMonth;
     }
 
+    public boolean isDailyFetchConcurrent() {
+        return dailyFetchConcurrent;
+    }
+
+    public long getDailyFetchTimeoutSeconds() {
+        return dailyFetchTimeoutSeconds;
+    }
+
+    public Duration getStatsConnectTimeout() {
+        return getMillis(statsConnectTimeoutMillis, httpConnectTimeoutMillis);
+    }
+
+    /**
+     * @return read timeout of the stats urls, by default at least the daily fetch deadline since the stats
+     * calculation of the search api can run for minutes
+     */
+    public Duration getStatsReadTimeout() {
+        long defaultMillis = Math.max(httpReadTimeoutMillis, TimeUnit.SECONDS.toMillis(dailyFetchTimeoutSeconds));
+        return getMillis(statsReadTimeoutMillis, defaultMillis);
+    }
+
+    public Duration getEsConnectTimeout() {
+        return getMillis(esConnectTimeoutMillis, httpConnectTimeoutMillis);
+    }
+
+    public Duration getEsReadTimeout() {
+        return getMillis(esReadTimeoutMillis, httpReadTimeoutMillis);
+    }
+
+    public Duration getKeycloakConnectTimeout() {
+        return getMillis(keycloakConnectTimeoutMillis, httpConnectTimeoutMillis);
+    }
+
+    public Duration getKeycloakReadTimeout() {
+        return getMillis(keycloakReadTimeoutMillis, httpReadTimeoutMillis);
+    }
+
+    private static Duration getMillis(String millis, long defaultMillis) {
+        return Duration.ofMillis(StringUtils.isBlank(millis) ? defaultMillis : Long.parseLong(millis.trim()));
+    }
+
+    public boolean isDaemonEnabled() {
+        return daemonEnabled;
+    }
+
+    public String getDaemonDailyCron() {
+        return daemonDailyCron.trim();
+    }
+
+    /**
+     * @return cron expression of the monthly task, by default at 01:00 on the configured day of the month
+     */
+    public String getDaemonMonthlyCron() {
+        return StringUtils.isBlank(daemonMonthlyCron) ? "0 0 1 " + getDayOfMonth() + " * *" : daemonMonthlyCron.trim();
+    }
+
+    /**
+     * @return time zone of the cron schedules, by default UTC like the day and month bounds of the statistics
+     */
+    public ZoneId getDaemonZone() {
+        return StringUtils.isBlank(daemonZone) ? ZoneOffset.UTC : ZoneId.of(daemonZone.trim());
+    }
+
+    public File getDaemonStateFile() {
+        return StringUtils.isBlank(daemonStateFile) ? null : new File(daemonStateFile.trim());
+    }
+
+    public File getRunLockFile() {
+        return StringUtils.isBlank(runLockFile) ? null : new File(runLockFile.trim());
+    }
+
+    public boolean isStartupTrainingRun() {
+        return startupTrainingRun;
+    }
+
+    public File getMetricsTextFile() {
+        return StringUtils.isBlank(metricsTextFile) ? null : new File(metricsTextFile.trim());
+    }
+
+    public File getMetricsSummaryFile() {
+        return StringUtils.isBlank(metricsSummaryFile) ? null : new File(metricsSummaryFile.trim());
+    }
+
     /**
      * Build the Request body of the Elastic search request
      * @return request body
@@ -140,9 +511,11 @@ public class AnalyticsApiConfig {
         }
     }
 
+    @Lazy
     @Bean(name = ELASTIC_SEARCH_CONNECTION)
     public ElasticSearchConnection getElasticSearchConnection() throws IOException {
-        return new ElasticSearchConnection(getElasticSearchUrl(), getElasticSearchRequestBody(), getObjectMapper());
+        return new ElasticSearchConnection(getElasticSearchUrl(), getElasticSearchRequestBody(), getObjectMapper(),
+                getHttpConnection().withReadTimeout(getEsReadTimeout()));
     }
 
     @Bean(name = DATABOX)
@@ -150,15 +523,93 @@ public class AnalyticsApiConfig {
         return  new Databox(getDataboxToken());
     }
 
+    @Bean(name = DATABOX_OUTBOX)
+    public DataboxOutbox getDataboxOutbox() {
+        return new DataboxOutbox(getDataboxOutboxFile(), getObjectMapper());
+    }
+
+    @Bean(name = KPI_VALUE_STORE)
+    public KpiValueStore getKpiValueStore() {
+        return new KpiValueStore(getDataboxKpiStoreFile(), getObjectMapper(), getDataboxKpiHeartbeat());
+    }
+
+    @Bean(name = RESPONSE_CACHE)
+    public ResponseCache getResponseCache() {
+        return new ResponseCache(getResponseCacheDir(), getObjectMapper());
+    }
+
+    @Bean(name = APIKEY_USAGE_STORE)
+    public ApiKeyUsageStore getApiKeyUsageStore() {
+        return new ApiKeyUsageStore(getApiKeyStoreDir(), getApiKeyStoreRetentionDays());
+    }
+
+    @Bean(name = RUN_METRICS)
+    public RunMetrics getRunMetrics() {
+        return new RunMetrics(getMetricsTextFile(), getMetricsSummaryFile(), getObjectMapper());
+    }
+
+    /**
+     * Http client shared by all the upstream connections, with a pool of keep-alive connections.
+     * The connect timeout is resolved per host of the configured endpoints, the read timeout is set per endpoint
+     * by the connections returned by {@link StreamingHttpConnection#withReadTimeout(Duration)}.
+     * @return the shared connection, closed with the application context
+     */
+    @Bean(name = HTTP_CONNECTION, destroyMethod = "close")
+    public StreamingHttpConnection getHttpConnection() {
+        ConnectionConfig defaultConfig = getConnectionConfig(Duration.ofMillis(httpConnectTimeoutMillis));
+        Map<String, ConnectionConfig> hostConfigs = new HashMap<>();
+        for (String url : List.of(getUserStatsUrl(), getSetApiStatsUrl(), getEntityStatsUrl(), getSearchApiUrl())) {
+            putHostConfig(hostConfigs, url, getStatsConnectTimeout());
+        }
+        putHostConfig(hostConfigs, getElasticSearchUrl(), getEsConnectTimeout());
+        putHostConfig(hostConfigs, getRegisteredClientsUrl(), getKeycloakConnectTimeout());
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(httpPoolMaxTotal)
+                .setMaxConnPerRoute(httpPoolMaxPerRoute)
+                .setConnectionConfigResolver(route -> hostConfigs.getOrDefault(
+                        route.getTargetHost().getHostName().toLowerCase(Locale.ROOT), defaultConfig))
+                .build();
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(httpPoolIdleTimeoutSeconds))
+                .build();
+        return new StreamingHttpConnection(httpClient, getRunMetrics().getHttpListener());
+    }
+
+    @Bean(name = STATS_HTTP_CONNECTION)
+    public StreamingHttpConnection getStatsHttpConnection() {
+        return getHttpConnection().withReadTimeout(getStatsReadTimeout());
+    }
+
+    private void putHostConfig(Map<String, ConnectionConfig> hostConfigs, String url, Duration connectTimeout) {
+        String host = (StringUtils.isBlank(url) ? null : URI.create(url.trim()).getHost());
+        if (host != null) {
+            hostConfigs.put(host.toLowerCase(Locale.ROOT), getConnectionConfig(connectTimeout));
+        }
+    }
+
+    private ConnectionConfig getConnectionConfig(Duration connectTimeout) {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout.toMillis()))
+                .setSocketTimeout(Timeout.ofMilliseconds(httpReadTimeoutMillis))
+                .setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY)
+                .build();
+    }
+
 
+    @Lazy
     @Bean(REGISTERED_CLIENT_CONNECTION)
     public ClientsServiceConnection getClientsServiceConnection() {
         return new ClientsServiceConnection(
                 getRegisteredClientsUrl(),
                 getAnalyticsApiAuthHandler(),
-                getObjectMapper());
+                getObjectMapper(),
+                getHttpConnection().withReadTimeout(getKeycloakReadTimeout()));
     }
 
+    @Lazy
     @Bean(ANALYTICS_API_AUTH)
     public AuthenticationHandler getAnalyticsApiAuthHandler() {
         return AuthenticationBuilder.newAuthentication(new AuthenticationConfig(tokenEndpoint, grantParams));
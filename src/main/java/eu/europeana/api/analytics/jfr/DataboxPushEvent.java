@@ -0,0 +1,31 @@
+package eu.europeana.api.analytics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a single attempt to push a request of KPIs to databox
+ */
+@Name("eu.europeana.analytics.DataboxPush")
+@Label("Databox Push")
+@Category({"Europeana", "Analytics"})
+@Description("Attempt to push a request of KPIs to databox")
+@StackTrace(false)
+public class DataboxPushEvent extends jdk.jfr.Event {
+
+    @Label("Metrics")
+    @Description("Metrics of the KPIs in the request")
+    public String metrics;
+
+    @Label("KPIs")
+    public int kpis;
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Success")
+    public boolean success;
+}
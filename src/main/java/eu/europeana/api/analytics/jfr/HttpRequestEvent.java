@@ -0,0 +1,35 @@
+package eu.europeana.api.analytics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of an http request, from sending the request until its response was read.
+ * As the responses are parsed while they are received, the duration includes the parsing.
+ */
+@Name("eu.europeana.analytics.HttpRequest")
+@Label("HTTP Request")
+@Category({"Europeana", "Analytics"})
+@Description("Http request to an upstream service, Elastic search or Keycloak")
+@StackTrace(false)
+public class HttpRequestEvent extends jdk.jfr.Event {
+
+    @Label("Method")
+    public String method;
+
+    @Label("URL")
+    public String url;
+
+    @Label("Status")
+    @Description("Http status code of the response, 0 if no response was received")
+    public int status;
+
+    @Label("Response Bytes")
+    @Description("Bytes of the response body read, after decompression")
+    @DataAmount
+    public long bytes;
+}
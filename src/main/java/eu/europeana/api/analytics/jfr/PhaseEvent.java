@@ -0,0 +1,26 @@
+package eu.europeana.api.analytics.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event of a timed phase of the run, ex: the ingestion of a day or the aggregation of the
+ * apikey statistics
+ */
+@Name("eu.europeana.analytics.Phase")
+@Label("Phase")
+@Category({"Europeana", "Analytics"})
+@Description("Phase of an analytics run")
+@StackTrace(false)
+public class PhaseEvent extends jdk.jfr.Event {
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Failed")
+    @Description("True if the phase ended with an exception")
+    public boolean failed;
+}
@@ -1,33 +1,44 @@
 package eu.europeana.api.analytics.model;
 
-import java.io.Serial;
-import java.util.HashMap;
-
 /**
  * Apikey statistics class.
  * Hold the statistics fetched from the ELK
+ * The daily counts are stored as an int array, aligned with the shared {@link DayIndex}
  * @author srishti singh
  */
-public class ApiKeyStats extends HashMap<String,Integer> {
-
-    @Serial
-    private static final long serialVersionUID = -5270775130270603183L;
+public class ApiKeyStats {
 
-    private String apikey;
+    private final String   apikey;
+    private final DayIndex days;
+    private final int[]    counts;
     private int    total;
     private int    active;
 
     /**
      * Default constructor
      * @param apikey apikey of the statistics
+     * @param days days of the statistics
      */
-    public ApiKeyStats(String apikey) { this.apikey = apikey; }
+    public ApiKeyStats(String apikey, DayIndex days) {
+        this.apikey = apikey;
+        this.days   = days;
+        this.counts = new int[days.size()];
+    }
 
-    public String getApiKey()           { return apikey;   }
-    public int    getTotal()            { return total;    }
-    public void   setTotal(int total)   { this.total = total;  }
-    public int    getActive()           { return active;   }
-    public void   setActive(int active) { this.active = active; }
+    public String   getApiKey()           { return apikey;   }
+    public DayIndex getDays()             { return days;     }
+    public int      getTotal()            { return total;    }
+    public void     setTotal(int total)   { this.total = total;  }
+    public int      getActive()           { return active;   }
+    public void     setActive(int active) { this.active = active; }
+
+    /**
+     * Returns the count for the day at the given position of the day index
+     * @param day position of the day
+     * @return count
+     */
+    public int  getCount(int day)            { return counts[day]; }
+    public void setCount(int day, int count) { counts[day] = count; }
 
     @Override
     public String toString() {
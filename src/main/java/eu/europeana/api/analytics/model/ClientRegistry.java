@@ -0,0 +1,49 @@
+package eu.europeana.api.analytics.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable lookup of the client type per apikey.
+ * Built once per run from the {@link RegisteredClients}, apikeys which are not registered
+ * as internal or project clients are personal clients.
+ */
+public class ClientRegistry {
+
+    private final Map<String, ClientType> clientTypes;
+
+    private ClientRegistry(Map<String, ClientType> clientTypes) {
+        this.clientTypes = clientTypes;
+    }
+
+    /**
+     * Builds the registry from the registered clients.
+     * Internal clients take precedence over project clients.
+     * @param registeredClients projects and internal clients keys
+     * @return client registry
+     */
+    public static ClientRegistry of(RegisteredClients registeredClients) {
+        Map<String, ClientType> clientTypes = new HashMap<>();
+        register(clientTypes, registeredClients.getProjects(), ClientType.PROJECT);
+        register(clientTypes, registeredClients.getInternal(), ClientType.INTERNAL);
+        return new ClientRegistry(Map.copyOf(clientTypes));
+    }
+
+    private static void register(Map<String, ClientType> clientTypes, List<String> apikeys, ClientType type) {
+        if (apikeys != null) {
+            for (String apikey : apikeys) {
+                clientTypes.put(apikey, type);
+            }
+        }
+    }
+
+    /**
+     * Returns the client type of the apikey
+     * @param apikey apikey
+     * @return client type, personal if the apikey is not registered as internal or project client
+     */
+    public ClientType classify(String apikey) {
+        return clientTypes.getOrDefault(apikey, ClientType.PERSONAL);
+    }
+}
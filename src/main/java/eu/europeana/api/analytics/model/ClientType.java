@@ -0,0 +1,10 @@
+package eu.europeana.api.analytics.model;
+
+/**
+ * Type of the client an apikey is registered for
+ */
+public enum ClientType {
+    INTERNAL,
+    PROJECT,
+    PERSONAL
+}
@@ -0,0 +1,110 @@
+package eu.europeana.api.analytics.model;
+
+import com.databox.sdk.KPI;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A KPI to be pushed to databox.
+ * Keeps the key, value and attributes of the KPI, so the payload size can be estimated before
+ * the KPIs are grouped in push requests.
+ */
+public class DataboxKpi {
+
+    // "$", quotes, colon, comma and braces around the key/value pair
+    private static final int KPI_OVERHEAD       = 8;
+    private static final int ATTRIBUTE_OVERHEAD = 6;
+
+    @JsonProperty("key")
+    private final String key;
+
+    @JsonProperty("value")
+    private final Number value;
+
+    @JsonProperty("attributes")
+    private final Map<String, String> attributes = new LinkedHashMap<>();
+
+    /**
+     * Constructor
+     * @param key key of the KPI
+     * @param value value of the KPI
+     */
+    public DataboxKpi(String key, Number value) {
+        this.key   = key;
+        this.value = value;
+    }
+
+    @JsonCreator
+    private DataboxKpi(@JsonProperty("key") String key, @JsonProperty("value") Number value,
+                       @JsonProperty("attributes") Map<String, String> attributes) {
+        this(key, value);
+        if (attributes != null) {
+            this.attributes.putAll(attributes);
+        }
+    }
+
+    /**
+     * Adds an attribute to the KPI
+     * @param name name of the attribute
+     * @param attributeValue value of the attribute
+     * @return this KPI
+     */
+    public DataboxKpi addAttribute(String name, String attributeValue) {
+        attributes.put(name, attributeValue);
+        return this;
+    }
+
+    public String getKey()                     { return key;        }
+    public Number getValue()                   { return value;      }
+    public Map<String, String> getAttributes() { return attributes; }
+
+    /**
+     * @return identifies the series of the KPI, the key and the attributes sorted by name
+     *  ex: EntityPerType|Type=Agent
+     */
+    public String getSeriesKey() {
+        StringBuilder series = new StringBuilder(key);
+        for (Map.Entry<String, String> attribute : new TreeMap<>(attributes).entrySet()) {
+            series.append('|').append(attribute.getKey()).append('=').append(attribute.getValue());
+        }
+        return series.toString();
+    }
+
+    /**
+     * @return the estimated size of the KPI in the json payload, in bytes
+     */
+    public int getEstimatedSize() {
+        int size = KPI_OVERHEAD + key.length() + String.valueOf(value).length();
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            size += ATTRIBUTE_OVERHEAD + attribute.getKey().length() + String.valueOf(attribute.getValue()).length();
+        }
+        return size;
+    }
+
+    /**
+     * @return the databox sdk KPI, dated by databox when it is received
+     */
+    public KPI toKPI() {
+        return toKPI(null);
+    }
+
+    /**
+     * @param date date of the value, null to let databox date it when it is received
+     * @return the databox sdk KPI
+     */
+    public KPI toKPI(Date date) {
+        KPI kpi = new KPI().setKey(key).setValue(value);
+        if (date != null) {
+            kpi.setDate(date);
+        }
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            kpi.addAttribute(attribute.getKey(), attribute.getValue());
+        }
+        return kpi;
+    }
+}
@@ -0,0 +1,34 @@
+package eu.europeana.api.analytics.model;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Sorted dictionary of the days covered by the apikey statistics.
+ * Shared by all the {@link ApiKeyStats} of a run, the position of a day
+ * in this index is the position of its count in every apikey statistics.
+ */
+public class DayIndex {
+
+    private final String[] days;
+
+    /**
+     * Constructor
+     * @param days days in ascending order, formatted as returned by Elastic search (yyyy-MM-dd)
+     */
+    public DayIndex(Collection<String> days) {
+        this.days = days.toArray(new String[0]);
+    }
+
+    public int    size()          { return days.length; }
+    public String getDay(int i)   { return days[i];     }
+
+    /**
+     * Returns the position of the day in the index
+     * @param day day to look for
+     * @return position of the day or a negative value if the day is not present
+     */
+    public int indexOf(String day) {
+        return Arrays.binarySearch(days, day);
+    }
+}
@@ -0,0 +1,43 @@
+package eu.europeana.api.analytics.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Entry of the databox outbox.
+ * Either a push request (the KPIs of one or more metrics) or the delivery marker of a push request.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class OutboxEntry {
+
+    public static final String REQUEST   = "request";
+    public static final String DELIVERED = "delivered";
+
+    @JsonProperty("type")
+    private String type;
+
+    @JsonProperty("id")
+    private String id;
+
+    @JsonProperty("created")
+    private String created;
+
+    @JsonProperty("metrics")
+    private String metrics;
+
+    @JsonProperty("kpis")
+    private List<DataboxKpi> kpis;
+
+    public String getType()              { return type;    }
+    public void   setType(String type)   { this.type = type; }
+    public String getId()                { return id;      }
+    public void   setId(String id)       { this.id = id;   }
+    public String getCreated()           { return created; }
+    public void   setCreated(String created) { this.created = created; }
+    public String getMetrics()           { return metrics; }
+    public void   setMetrics(String metrics) { this.metrics = metrics; }
+    public List<DataboxKpi> getKpis()    { return kpis;    }
+    public void   setKpis(List<DataboxKpi> kpis) { this.kpis = kpis; }
+}
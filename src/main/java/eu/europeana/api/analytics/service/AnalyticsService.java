@@ -4,24 +4,36 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.europeana.api.analytics.config.AnalyticsApiConfig;
 import eu.europeana.api.analytics.exception.ApiKeyStatisticsException;
 import eu.europeana.api.analytics.exception.DataboxPushFailedException;
+import eu.europeana.api.analytics.utils.KpiBatch;
 import eu.europeana.api.commons.auth.AuthenticationHandler;
 import eu.europeana.api.commons.definitions.statistics.entity.EntityMetric;
 import eu.europeana.api.commons.definitions.statistics.search.SearchMetric;
 import eu.europeana.api.commons.definitions.statistics.set.SetMetric;
 import eu.europeana.api.commons.definitions.statistics.user.ELKMetric;
 import eu.europeana.api.commons.definitions.statistics.user.UserMetric;
-import eu.europeana.api.commons.http.HttpConnection;
-import eu.europeana.api.commons.http.HttpResponseHandler;
 import jakarta.annotation.Resource;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static eu.europeana.api.analytics.utils.Constants.ANALYTICS_API_AUTH;
+import static eu.europeana.api.analytics.utils.Constants.RESPONSE_CACHE;
+import static eu.europeana.api.analytics.utils.Constants.STATS_HTTP_CONNECTION;
 
 /**
  * Analytics Api service class.
@@ -31,28 +43,38 @@ import static eu.europeana.api.analytics.utils.Constants.ANALYTICS_API_AUTH;
 public class AnalyticsService {
 
     private static final Logger LOG = LogManager.getLogger(AnalyticsService.class);
+    private static final int DAILY_FETCH_TASKS = 5;
 
     @Resource
     private AnalyticsApiConfig analyticsApiConfig;
 
+    @Lazy
     @Resource(name = ANALYTICS_API_AUTH)
     private AuthenticationHandler authHandler;
 
+    @Resource(name = RESPONSE_CACHE)
+    private ResponseCache responseCache;
+
+    @Resource(name = STATS_HTTP_CONNECTION)
+    private StreamingHttpConnection httpConnection;
+
     private final ApiKeyStatsService apiKeyStatsService;
     private final DataboxService databoxService;
+    private final RunMetrics runMetrics;
 
-    private HttpConnection httpConnection = new HttpConnection(true);
     private ObjectMapper mapper = new ObjectMapper();
 
     /**
      * Constructor
      * @param apiKeyStatsService apikey stats service
      * @param databoxService databox service
+     * @param runMetrics metrics of the run
      */
     @Autowired
-    public AnalyticsService(ApiKeyStatsService apiKeyStatsService, DataboxService databoxService) {
+    public AnalyticsService(ApiKeyStatsService apiKeyStatsService, DataboxService databoxService, RunMetrics runMetrics) {
         this.apiKeyStatsService = apiKeyStatsService;
         this.databoxService = databoxService;
+        this.runMetrics = runMetrics;
     }
 
     /**
@@ -60,26 +82,136 @@ public class AnalyticsService {
      * @throws DataboxPushFailedException if databox fails to push
      */
     public void executeDailyTask() throws DataboxPushFailedException {
+        if (analyticsApiConfig.isDailyFetchConcurrent()) {
+            executeDailyTaskConcurrently();
+            return;
+        }
         UserMetric   userMetric      = getUserStats();
         SetMetric    galleryMetrics  = getSetApiStats();
         EntityMetric entityMetrics   = getEntityApiStats();
         SearchMetric searchMetric    = getSearchApiStats();
+        Map<Integer, ApiKeyUsageAggregator> rollingUsage = getRollingUsageStats();
 
-        databoxService.pushUserMetrics(userMetric);
-        databoxService.pushGalleryMetrics(galleryMetrics);
-        databoxService.pushEntityMetrics(entityMetrics);
-        databoxService.pushSearchApiMetrics(searchMetric);
+        KpiBatch batch = databoxService.newBatch();
+        databoxService.addUserMetrics(userMetric, batch);
+        databoxService.addGalleryMetrics(galleryMetrics, batch);
+        databoxService.addEntityMetrics(entityMetrics, batch);
+        databoxService.addSearchApiMetrics(searchMetric, batch);
+        databoxService.addRollingUsageMetrics(rollingUsage, batch);
+        databoxService.push(batch);
 
     }
 
+    /**
+     * Fetches the daily statistics in parallel and pushes every metric to databox as soon as it is fetched,
+     * the KPIs of a metric are batched in as few requests as possible.
+     * Each fetch has its own deadline, a slow or failing source does not block or cancel the others.
+     * @throws DataboxPushFailedException if any of the metrics could not be fetched or pushed
+     */
+    private void executeDailyTaskConcurrently() throws DataboxPushFailedException {
+        ExecutorService executor = Executors.newFixedThreadPool(DAILY_FETCH_TASKS, runnable -> {
+            Thread thread = new Thread(runnable, "daily-fetch");
+            // a fetch which missed its deadline must not keep the job alive
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        try {
+            CompletableFuture.allOf(
+                    fetchAndPush("user", this::getUserStats, databoxService::addUserMetrics, executor, failures),
+                    fetchAndPush("gallery", this::getSetApiStats, databoxService::addGalleryMetrics, executor, failures),
+                    fetchAndPush("entity", this::getEntityApiStats, databoxService::addEntityMetrics, executor, failures),
+                    fetchAndPush("search", this::getSearchApiStats, databoxService::addSearchApiMetrics, executor, failures),
+                    fetchAndPush("rolling usage", this::getRollingUsageStats, databoxService::addRollingUsageMetrics, executor, failures)
+            ).join();
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!failures.isEmpty()) {
+            throw new DataboxPushFailedException(" Daily task failed for - " + failures);
+        }
+    }
+
+    private <T> CompletableFuture<Void> fetchAndPush(String name, MetricFetcher<T> fetcher, MetricCollector<T> collector,
+                                                     ExecutorService executor, List<String> failures) {
+        return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return fetcher.fetch();
+                    } catch (DataboxPushFailedException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor)
+                .orTimeout(analyticsApiConfig.getDailyFetchTimeoutSeconds(), TimeUnit.SECONDS)
+                .thenAccept(metric -> {
+                    try {
+                        KpiBatch batch = databoxService.newBatch();
+                        collector.add(metric, batch);
+                        databoxService.push(batch);
+                    } catch (DataboxPushFailedException e) {
+                        throw new CompletionException(e);
+                    }
+                })
+                .exceptionally(t -> {
+                    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    if (cause instanceof TimeoutException) {
+                        LOG.error("Fetching {} statistics did not complete within {} seconds", name, analyticsApiConfig.getDailyFetchTimeoutSeconds());
+                    } else {
+                        LOG.error("Error processing {} statistics - {}", name, cause.getMessage(), cause);
+                    }
+                    failures.add(name);
+                    return null;
+                });
+    }
+
     /**
      * Monthly tasks to be exceuted
      * @throws DataboxPushFailedException if databox fails to push
      */
     public void executeMonthlyTask() throws DataboxPushFailedException {
         ELKMetric    elkMetric       = getELKStats();
-        databoxService.pushElkMetrics(elkMetric);
-        LOG.error("Successfully pushed the monthly task data to databox...... ");
+        try {
+            databoxService.pushElkMetrics(elkMetric);
+            LOG.info("Successfully pushed the monthly task data to databox...... ");
+        } finally {
+            awaitApiKeyExports();
+        }
+    }
+
+    private void awaitApiKeyExports() {
+        try {
+            apiKeyStatsService.awaitExports();
+        } catch (ApiKeyStatisticsException e) {
+            LOG.error("Error while exporting the apikey statistics {} ", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stores the apikey usage of yesterday, and of any earlier day of the month which was missed,
+     * so the monthly task does not need to query the whole month
+     */
+    public void executeDailyIngestion() {
+        try {
+            apiKeyStatsService.ingestDailyUsage();
+        } catch (ApiKeyStatisticsException e) {
+            // the days still missing are ingested by the next run or by the monthly task
+            LOG.error("Error ingesting the daily apikey usage {} ", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the apikey threshold report of the previous month
+     * @throws ApiKeyStatisticsException if the report could not be generated
+     */
+    public void executeThresholdReport() throws ApiKeyStatisticsException {
+        apiKeyStatsService.generateThresholdReport();
+    }
+
+    /**
+     * Resends the databox push requests of the outbox which were not delivered
+     * @throws DataboxPushFailedException if databox fails to push
+     */
+    public void executeOutboxReplay() throws DataboxPushFailedException {
+        databoxService.replayOutbox();
     }
 
     /**
@@ -89,10 +221,8 @@ public class AnalyticsService {
     private UserMetric getUserStats() {
         try {
             LOG.info("Fetching the user statistics from url {}", analyticsApiConfig.getUserStatsUrl());
-            HttpResponseHandler response = httpConnection.get(analyticsApiConfig.getUserStatsUrl(), "application/json", authHandler);
-            if (response.getStatus() == HttpStatus.SC_OK) {
-                return mapper.readValue(response.getResponse(), UserMetric.class);
-            }
+            return runMetrics.timeCall("fetch_user", () -> responseCache.get(httpConnection, analyticsApiConfig.getUserStatsUrl(),
+                    authHandler, response -> mapper.readValue(response, UserMetric.class)));
         } catch (IOException e) {
             LOG.error("Error fetching response from {}", analyticsApiConfig.getUserStatsUrl(), e);
         }
@@ -106,10 +236,8 @@ public class AnalyticsService {
     private SetMetric getSetApiStats() {
         LOG.info("Fetching the gallery statistics from url {}", analyticsApiConfig.getSetApiStatsUrl());
         try {
-            HttpResponseHandler response = httpConnection.get(analyticsApiConfig.getSetApiStatsUrl(), "application/json", authHandler);
-            if (response.getStatus() == HttpStatus.SC_OK) {
-                return mapper.readValue(response.getResponse(), SetMetric.class);
-            }
+            return runMetrics.timeCall("fetch_gallery", () -> responseCache.get(httpConnection, analyticsApiConfig.getSetApiStatsUrl(),
+                    authHandler, response -> mapper.readValue(response, SetMetric.class)));
         } catch (IOException e) {
             LOG.error("Error fetching response from {}", analyticsApiConfig.getSetApiStatsUrl(), e);
         }
@@ -123,9 +251,8 @@ public class AnalyticsService {
     private EntityMetric getEntityApiStats() {
         LOG.info("Fetching the entity statistics from url {}", analyticsApiConfig.getEntityStatsUrl());
         try {
-            HttpResponseHandler response = httpConnection.get(analyticsApiConfig.getEntityStatsUrl(), "application/json", authHandler);
-            if (response.getStatus() == HttpStatus.SC_OK) {
-                return mapper.readValue(response.getResponse(), EntityMetric.class);}
+            return runMetrics.timeCall("fetch_entity", () -> responseCache.get(httpConnection, analyticsApiConfig.getEntityStatsUrl(),
+                    authHandler, response -> mapper.readValue(response, EntityMetric.class)));
         } catch (IOException e) {
             LOG.error("Error fetching response from {}", analyticsApiConfig.getEntityStatsUrl(), e);
         }
@@ -139,14 +266,13 @@ public class AnalyticsService {
     private SearchMetric getSearchApiStats() throws DataboxPushFailedException {
         LOG.info("Fetching the search statistics from url {}", analyticsApiConfig.getSearchApiUrl());
         try {
-            HttpResponseHandler response = httpConnection.get(analyticsApiConfig.getSearchApiUrl(), "application/json", authHandler);
-            if (response.getStatus() == HttpStatus.SC_OK) {
-                return mapper.readValue(response.getResponse(), SearchMetric.class);
-            }
+            ResponseCache.Response<SearchMetric> response = runMetrics.timeCall("fetch_search", () -> responseCache.getResponse(
+                    httpConnection, analyticsApiConfig.getSearchApiUrl(), authHandler, body -> mapper.readValue(body, SearchMetric.class)));
             // TODO : Temp fix , should be removed once we have implemented EA-4346
             if (response.getStatus() == HttpStatus.SC_GATEWAY_TIMEOUT) {
                 throw new DataboxPushFailedException("Gateway Timeout from SR API !! ");
             }
+            return response.getMetric();
         } catch (IOException e) {
             LOG.error("Error fetching response from {}", analyticsApiConfig.getSearchApiUrl(), e);
         }
@@ -156,10 +282,33 @@ public class AnalyticsService {
     private ELKMetric getELKStats() {
         LOG.info("Fetching the apikey statistics from keycloak and elk - {}", analyticsApiConfig.getElasticSearchUrl());
         try {
-            return apiKeyStatsService.generate();
+            return runMetrics.timeCall("elk_stats", apiKeyStatsService::generate);
         } catch (ApiKeyStatisticsException e) {
             LOG.error("Error while generating Elk stats {} ", e.getMessage(), e);
         }
         return null;
     }
+
+    /**
+     * Method to generate the rolling usage windows from the stored apikey usage
+     * @return aggregated usage per window length, null if the windows could not be generated
+     */
+    private Map<Integer, ApiKeyUsageAggregator> getRollingUsageStats() {
+        try {
+            return runMetrics.timeCall("rolling_usage", apiKeyStatsService::generateRolling);
+        } catch (ApiKeyStatisticsException e) {
+            LOG.error("Error while generating the rolling usage stats {} ", e.getMessage(), e);
+        }
+        return null;
+    }
+
+    @FunctionalInterface
+    private interface MetricFetcher<T> {
+        T fetch() throws DataboxPushFailedException;
+    }
+
+    @FunctionalInterface
+    private interface MetricCollector<T> {
+        void add(T metric, KpiBatch batch) throws DataboxPushFailedException;
+    }
 }
@@ -0,0 +1,247 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streaming parser for the apikey aggregation response of Elastic search.
+ * Reads the daily histogram of every apikey bucket in a single pass,
+ * without building the json document in memory.
+ * The dates of every apikey are handed over in ascending order, so they can be resolved
+ * positionally against the sorted dates of the month.
+ * Both the terms and the composite (paged) apikeys aggregation responses are supported.
+ */
+public class ApiKeyAggregationParser {
+
+    private static final String AGGREGATIONS  = "aggregations";
+    private static final String APIKEYS       = "apikeys";
+    private static final String BUCKETS       = "buckets";
+    private static final String AFTER_KEY     = "after_key";
+    private static final String KEY           = "key";
+    private static final String DATE          = "date";
+    private static final String KEY_AS_STRING = "key_as_string";
+    private static final String DOC_COUNT     = "doc_count";
+
+    private final JsonFactory jsonFactory;
+
+    /**
+     * Constructor
+     * @param jsonFactory factory to create the json parser
+     */
+    public ApiKeyAggregationParser(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Parses the Elastic search response and hands over the daily counts of every apikey bucket
+     * @param response elastic search response
+     * @param handler receives the apikey and its counts per date, in the order of the response
+     * @return the after key of a composite aggregation response, null if there are no more pages
+     * @throws IOException if the response can not be read or is not valid json
+     */
+    public Map<String, String> parse(InputStream response, ApiKeyBucketHandler handler) throws IOException {
+        Map<String, String> afterKey = new LinkedHashMap<>();
+        try (JsonParser parser = jsonFactory.createParser(response)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            // dates are the same for all the apikeys, share the instances
+            Map<String, String> dates = new HashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (AGGREGATIONS.equals(field) && value == JsonToken.START_OBJECT) {
+                    readObject(parser, APIKEYS, () -> readApiKeys(parser, handler, dates, afterKey));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return afterKey.isEmpty() ? null : afterKey;
+    }
+
+    private void readApiKeys(JsonParser parser, ApiKeyBucketHandler handler, Map<String, String> dates,
+                             Map<String, String> afterKey) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (BUCKETS.equals(field)) {
+                readApiKeyBuckets(parser, handler, dates);
+            } else if (AFTER_KEY.equals(field) && value == JsonToken.START_OBJECT) {
+                readCompositeKey(parser, afterKey);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readApiKeyBuckets(JsonParser parser, ApiKeyBucketHandler handler, Map<String, String> dates) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        DateBuckets dateBuckets = new DateBuckets();
+        Map<String, String> compositeKey = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String apikey = null;
+            dateBuckets.clear();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (KEY.equals(field) && value == JsonToken.VALUE_STRING) {
+                    apikey = parser.getText();
+                } else if (KEY.equals(field) && value == JsonToken.START_OBJECT) {
+                    // composite aggregation, the apikey is the only source of the key
+                    compositeKey.clear();
+                    readCompositeKey(parser, compositeKey);
+                    apikey = compositeKey.isEmpty() ? null : compositeKey.values().iterator().next();
+                } else if (DATE.equals(field) && value == JsonToken.START_OBJECT) {
+                    readObject(parser, BUCKETS, () -> readDateBuckets(parser, dateBuckets, dates));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (apikey != null) {
+                dateBuckets.sort();
+                handler.accept(apikey, dateBuckets.getDates(), dateBuckets.getCounts());
+            }
+        }
+    }
+
+    private void readDateBuckets(JsonParser parser, DateBuckets dateBuckets, Map<String, String> dates) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String date  = null;
+            int    count = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (KEY_AS_STRING.equals(field)) {
+                    date = dates.computeIfAbsent(parser.getText(), d -> d);
+                } else if (DOC_COUNT.equals(field)) {
+                    count = parser.getIntValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (date != null) {
+                dateBuckets.add(date, count);
+            }
+        }
+    }
+
+    private void readCompositeKey(JsonParser parser, Map<String, String> key) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            if (parser.nextToken().isScalarValue()) {
+                key.put(field, parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the current json object and calls the reader for the value of the given field,
+     * all the other fields are skipped
+     */
+    private void readObject(JsonParser parser, String fieldName, FieldReader reader) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (fieldName.equals(field)) {
+                reader.read();
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+
+    @FunctionalInterface
+    private interface FieldReader {
+        void read() throws IOException;
+    }
+
+    /**
+     * Receives the daily counts of an apikey bucket
+     */
+    @FunctionalInterface
+    public interface ApiKeyBucketHandler {
+        /**
+         * @param apikey the apikey
+         * @param dates dates of the buckets in ascending order
+         * @param counts count of the bucket at the same position
+         */
+        void accept(String apikey, String[] dates, int[] counts);
+    }
+
+    /**
+     * Reusable buffer for the date buckets of one apikey
+     */
+    private static final class DateBuckets {
+        private String[] dates  = new String[32];
+        private int[]    counts = new int[32];
+        private int      size;
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(String date, int count) {
+            if (size == dates.length) {
+                dates  = Arrays.copyOf(dates, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            dates[size]  = date;
+            counts[size] = count;
+            size++;
+        }
+
+        /**
+         * Elastic search returns the histogram ordered by date, only sort if that is not the case
+         */
+        void sort() {
+            for (int i = 1; i < size; i++) {
+                if (dates[i - 1].compareTo(dates[i]) > 0) {
+                    insertionSort();
+                    return;
+                }
+            }
+        }
+
+        private void insertionSort() {
+            for (int i = 1; i < size; i++) {
+                String date  = dates[i];
+                int    count = counts[i];
+                int j = i - 1;
+                while (j >= 0 && dates[j].compareTo(date) > 0) {
+                    dates[j + 1]  = dates[j];
+                    counts[j + 1] = counts[j];
+                    j--;
+                }
+                dates[j + 1]  = date;
+                counts[j + 1] = count;
+            }
+        }
+
+        String[] getDates() {
+            return Arrays.copyOf(dates, size);
+        }
+
+        int[] getCounts() {
+            return Arrays.copyOf(counts, size);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.DayIndex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Collects the daily counts of the apikeys as they are parsed from one or more Elastic search responses
+ * and builds the apikey statistics over all the collected days.
+ * When an apikey is collected more than once (e.g. from the responses of different time slices)
+ * its daily counts are merged.
+ */
+public class ApiKeyStatsBuilder implements ApiKeyAggregationParser.ApiKeyBucketHandler {
+
+    private final int callsPerDay;
+    private final Map<String, ApiKeyBuckets> buckets = new LinkedHashMap<>();
+    private final Set<String>         dates   = new TreeSet<>();
+    private DayIndex days;
+
+    /**
+     * Constructor
+     * @param callsPerDay minimum number of calls for a day to count as an active day
+     */
+    public ApiKeyStatsBuilder(int callsPerDay) {
+        this.callsPerDay = callsPerDay;
+    }
+
+    @Override
+    public void accept(String apikey, String[] dates, int[] counts) {
+        Collections.addAll(this.dates, dates);
+        buckets.merge(apikey, new ApiKeyBuckets(apikey, dates, counts), ApiKeyBuckets::merge);
+    }
+
+    /**
+     * Adds all the apikey buckets collected by the other builder
+     * @param other builder with the apikey buckets of another response
+     */
+    public void merge(ApiKeyStatsBuilder other) {
+        for (ApiKeyBuckets bucket : other.buckets.values()) {
+            accept(bucket.apikey, bucket.dates, bucket.counts);
+        }
+    }
+
+    /**
+     * Builds the apikey statistics, in the order the apikeys were collected
+     * @return apikey statistics
+     */
+    public List<ApiKeyStats> build() {
+        days = new DayIndex(dates);
+        List<ApiKeyStats> list = new ArrayList<>(buckets.size());
+        for (ApiKeyBuckets bucket : buckets.values()) {
+            list.add(getStats(bucket, days));
+        }
+        return list;
+    }
+
+    /**
+     * @return the days of the statistics, available once the statistics are built
+     */
+    public DayIndex getDays() {
+        return days;
+    }
+
+    /**
+     * Resolves the date buckets of the apikey positionally against the day index,
+     * both are in ascending order so a single walk over them is enough
+     * @param bucket date buckets of the apikey
+     * @param days all the days of the month
+     * @return apikey statistics
+     */
+    private ApiKeyStats getStats(ApiKeyBuckets bucket, DayIndex days) {
+        int total  = 0;
+        int active = 0;
+        int next   = 0;
+        ApiKeyStats apikey = new ApiKeyStats(bucket.apikey, days);
+        for ( int day = 0; day < days.size(); day++ ) {
+            int count = 0;
+            if (next < bucket.dates.length && bucket.dates[next].equals(days.getDay(day))) {
+                count = bucket.counts[next++];
+            }
+            apikey.setCount(day, count);
+
+            active += (count >= callsPerDay ? 1 : 0);
+            total  += count;
+        }
+        apikey.setTotal(total);
+        apikey.setActive(active);
+        return apikey;
+    }
+
+    /**
+     * Date buckets of an apikey as read from the Elastic search response
+     */
+    private static final class ApiKeyBuckets {
+        private final String   apikey;
+        private final String[] dates;
+        private final int[]    counts;
+
+        private ApiKeyBuckets(String apikey, String[] dates, int[] counts) {
+            this.apikey = apikey;
+            this.dates  = dates;
+            this.counts = counts;
+        }
+
+        /**
+         * Merges the date buckets of the same apikey, both sorted by date
+         */
+        private static ApiKeyBuckets merge(ApiKeyBuckets a, ApiKeyBuckets b) {
+            String[] dates  = new String[a.dates.length + b.dates.length];
+            int[]    counts = new int[dates.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < a.dates.length || j < b.dates.length) {
+                int cmp = (i == a.dates.length ? 1 : (j == b.dates.length ? -1 : a.dates[i].compareTo(b.dates[j])));
+                if (cmp <= 0) {
+                    dates[n]  = a.dates[i];
+                    counts[n] = a.counts[i++];
+                    if (cmp == 0) {
+                        counts[n] += b.counts[j++];
+                    }
+                } else {
+                    dates[n]  = b.dates[j];
+                    counts[n] = b.counts[j++];
+                }
+                n++;
+            }
+            return new ApiKeyBuckets(a.apikey, Arrays.copyOf(dates, n), Arrays.copyOf(counts, n));
+        }
+    }
+}
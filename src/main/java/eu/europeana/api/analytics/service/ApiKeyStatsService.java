@@ -1,20 +1,42 @@
 package eu.europeana.api.analytics.service;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
-
-import com.jayway.jsonpath.JsonPath;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.europeana.api.analytics.config.AnalyticsApiConfig;
 import eu.europeana.api.analytics.exception.ApiKeyStatisticsException;
 import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.model.ClientType;
+import eu.europeana.api.analytics.model.DayIndex;
 import eu.europeana.api.analytics.model.RegisteredClients;
+import eu.europeana.api.analytics.utils.ApiKeyMatrixFile;
+import eu.europeana.api.analytics.utils.AtomicFiles;
+import eu.europeana.api.analytics.utils.CsvWriter;
 import eu.europeana.api.commons.definitions.statistics.user.ELKMetric;
 import jakarta.annotation.Resource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 
+import static eu.europeana.api.analytics.utils.Constants.RUN_METRICS;
+
 /**
  * Api key statistics service
  * @author srishti singh
@@ -23,56 +45,96 @@ import org.springframework.stereotype.Service;
 public class ApiKeyStatsService {
 
     private static final Logger LOG           = LogManager.getLogger(ApiKeyStatsService.class);
-    private static final int DEFAULT_SIZE     = 200;
+    private static final String REGISTERED_CLIENTS_FILE = "registered-clients.json";
 
     @Resource
     private AnalyticsApiConfig analyticsApiConfig;
+    @Resource(name = RUN_METRICS)
+    private RunMetrics runMetrics;
     private ElasticSearchConnection elasticSearchConnection;
     private ClientsServiceConnection clientsServiceConnection;
+    private ApiKeyAggregationParser aggregationParser;
+    private ApiKeyUsageStore usageStore;
+    private ObjectMapper mapper;
+    private RegisteredClients cachedClients;
+    private Instant cachedClientsFetched;
+    private final Map<Integer, RollingUsageWindow> rollingWindows = new TreeMap<>();
+    private CompletableFuture<Void> export = CompletableFuture.completedFuture(null);
 
+    /**
+     * Constructor. The Elastic search and Keycloak connections are only created once they are used,
+     * so the runs which do not query them (ex: daily runs without the apikey store) do not build them.
+     */
     @Autowired
-    ApiKeyStatsService(ElasticSearchConnection elasticSearchConnection, ClientsServiceConnection clientsServiceConnection) {
+    ApiKeyStatsService(@Lazy ElasticSearchConnection elasticSearchConnection, @Lazy ClientsServiceConnection clientsServiceConnection,
+                       ObjectMapper mapper, ApiKeyUsageStore usageStore) {
         this.elasticSearchConnection = elasticSearchConnection;
         this.clientsServiceConnection = clientsServiceConnection;
+        this.aggregationParser = new ApiKeyAggregationParser(mapper.getFactory());
+        this.usageStore = usageStore;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Fetches the apikey usage of the days not stored yet, from the first day of the previous month until
+     * yesterday (UTC), one day per Elastic search query. Usually only yesterday is missing, the other days
+     * are caught up when a daily run was missed.
+     * The days are always paged with the composite aggregation, so that every apikey of the day is stored and
+     * not only the top apikeys of a size limited terms aggregation.
+     * @throws ApiKeyStatisticsException if the usage of a day could not be fetched or stored
+     */
+    public void ingestDailyUsage() throws ApiKeyStatisticsException {
+        if (!usageStore.isEnabled()) {
+            return;
+        }
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (LocalDate day : usageStore.getMissingDays(today.withDayOfMonth(1).minusMonths(1), today)) {
+            LOG.info("Fetching apikey usage statistics of {} from ELK ...... ", day);
+            runMetrics.time("apikey_ingest_day", () -> {
+                ApiKeyUsageStore.DayUsage usage = new ApiKeyUsageStore.DayUsage();
+                fetchPages(usage, day, day.plusDays(1));
+                try {
+                    usageStore.writeDay(day, usage);
+                } catch (IOException e) {
+                    throw new ApiKeyStatisticsException(" Error storing the apikey usage of " + day + " - " + e.getMessage(), e);
+                }
+            });
+            runMetrics.count("ingested_days", 1);
+        }
+        usageStore.prune(today);
     }
 
     /**
      * Generates the Metric by fetching stats from ELK and keycloak.
      *
-     * @return elk metric
-     * @throws IOException
+     * @return elk metric, null if there are no apikey statistics or registered clients
      * @throws ApiKeyStatisticsException exceptions during stats generation
      */
     public ELKMetric generate() throws ApiKeyStatisticsException {
         LOG.info("Fetching from keycloak registered client list ...... ");
-        RegisteredClients registeredClients = clientsServiceConnection.getRegisteredClients();
+        RegisteredClients registeredClients = runMetrics.timeCall("registered_clients", this::fetchRegisteredClients);
         List<ApiKeyStats> list = getStats();
 
 
         if (!list.isEmpty() && registeredClients != null) {
             LOG.info(" Apikey stats accumulated for this month - {} ", list.size());
 
-            // calculate metrics
-            int totalInternalTraffic = getInternalClientUsage(list, registeredClients.getInternal());
-            int totalExternalTraffic = getExternalClientUsage(list, registeredClients.getInternal());
+            // classify and calculate all the metrics in one pass
+            ClientRegistry registry = ClientRegistry.of(registeredClients);
+            boolean parallel = list.size() >= analyticsApiConfig.getParallelAggregationThreshold();
+            ApiKeyUsageAggregator usage = runMetrics.timeCall("apikey_aggregate", () -> ApiKeyUsageAggregator.aggregate(list,
+                    registry, list.get(0).getDays().size(), analyticsApiConfig.getCallsPerDay(),
+                    analyticsApiConfig.getActiveDays(), parallel));
 
-            removeInternalClients(list, registeredClients.getInternal());
+            LOG.info(" Apikey stats after removing internal clients - {} ", usage.getExternalClients());
+            runMetrics.count("external_apikeys", usage.getExternalClients());
+            LOG.info("For {} clients - Active Keys Per Month : {}, Active Keys Per Day : {}", "project",
+                    usage.getProjectActiveKeysPerMonth(), usage.getProjectActiveKeysPerDay());
+            LOG.info("For {} clients - Active Keys Per Month : {}, Active Keys Per Day : {}", "personal",
+                    usage.getPersonalActiveKeysPerMonth(), usage.getPersonalActiveKeysPerDay());
 
-            LOG.info(" Apikey stats after removing internal clients - {} ", list.size());
-
-            List<ApiKeyStats> projectClients  = new ArrayList<>();
-            List<ApiKeyStats> personalClients = new ArrayList<>();
-
-            fetchProjectAndPersonalClients(list, registeredClients.getProjects(), projectClients, personalClients);
-
-            int regularCustomer =  getRegular(projectClients, "project");
-            int regularUser = getRegular(personalClients, "personal");
-
-            ELKMetric elkMetric =  new ELKMetric(regularCustomer, projectClients.size(),
-                    regularUser, personalClients.size(),
-                    list.size(),
-                    totalExternalTraffic,
-                    totalInternalTraffic);
+            ELKMetric elkMetric = usage.toELKMetric();
+            writeThresholdReport(list, registry, analyticsApiConfig.getThresholdReportFile());
 
             LOG.info("Apikey usage stats :: \n {}", elkMetric);
             return  elkMetric;
@@ -84,206 +146,376 @@ public class ApiKeyStatsService {
 
 
     /**
-     * Fetches the Statistics from ELK
-     * @return
-     * @throws ApiKeyStatisticsException
-     * @throws IOException
+     * Writes the regular keys for the whole grid of calls.per.day and active.days thresholds,
+     * without generating the monthly metric
+     * @throws ApiKeyStatisticsException if the statistics could not be fetched or the report could not be written
      */
-    @SuppressWarnings("java:S3740") // the data coming from ELK is in complex format, can not define the specific type
-    private List<ApiKeyStats> getStats() throws ApiKeyStatisticsException {
-        LOG.info("Fetching monthly apikey usage statistics from ELK ...... ");
-        String json = elasticSearchConnection.getApiKeyData();
-        if (json != null) {
-            Map apikeys = JsonPath.read(json, "$.aggregations.apikeys");
-            List<String> dates = JsonPath.read(apikeys, "$.buckets[*].date.buckets[*].key_as_string");
-            List<Map> buckets = JsonPath.read(apikeys, "$.buckets");
+    public void generateThresholdReport() throws ApiKeyStatisticsException {
+        if (analyticsApiConfig.getThresholdReportFile() == null) {
+            LOG.warn("Not generating the threshold report. Target csv file not provided");
+            return;
+        }
+        RegisteredClients registeredClients = fetchRegisteredClients();
+        if (registeredClients == null) {
+            throw new ApiKeyStatisticsException(" Registered clients not available for the threshold report");
+        }
+        List<ApiKeyStats> list = getStats();
+        if (list.isEmpty()) {
+            LOG.info("Not generating the threshold report, no apikey statistics .... ");
+            return;
+        }
+        writeThresholdReport(list, ClientRegistry.of(registeredClients), analyticsApiConfig.getThresholdReportFile());
+        awaitExports();
+    }
 
-            List<ApiKeyStats> list = new ArrayList(DEFAULT_SIZE);
+    /**
+     * Writes the sensitivity grid of the regular keys to the csv file
+     * @param list apikey statistics
+     * @param registry client type of the apikeys
+     * @param file target csv file, no report is written if null
+     * @throws ApiKeyStatisticsException if the report could not be written
+     */
+    private void writeThresholdReport(List<ApiKeyStats> list, ClientRegistry registry, File file) throws ApiKeyStatisticsException {
+        if (file == null || list.isEmpty()) {
+            return;
+        }
+        ThresholdSweepIndex index = new ThresholdSweepIndex(list, registry, list.get(0).getDays().size(),
+                analyticsApiConfig.getThresholdReportMaxCallsPerDay());
+        try {
+            AtomicFiles.write(file.toPath(), tmp -> {
+                try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                    index.writeReport(out);
+                    if (out.checkError()) {
+                        throw new IOException("Error writing " + file);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new ApiKeyStatisticsException(" Error generating the apikey threshold report - " + e.getMessage(), e);
+        }
+        LOG.info("Apikey threshold report for up to {} calls per day and {} active days written to {}",
+                index.getMaxCallsPerDay(), index.getDays(), file);
+    }
 
-            Set<String> sDates = new TreeSet<>(dates);
-            for (Map bucket : buckets) {
-                list.add(getStats(bucket, sDates));
+    /**
+     * Moves the rolling usage windows to end with yesterday (UTC) and aggregates them.
+     * The windows are built from the apikey usage store, so they are only available when the store is enabled.
+     * @return the aggregated usage per window length in days, empty if the store is disabled
+     * @throws ApiKeyStatisticsException if the windows could not be moved or the registered clients are missing
+     */
+    public synchronized Map<Integer, ApiKeyUsageAggregator> generateRolling() throws ApiKeyStatisticsException {
+        Map<Integer, ApiKeyUsageAggregator> rolling = new TreeMap<>();
+        if (!usageStore.isEnabled() || analyticsApiConfig.getRollingWindows().isEmpty()) {
+            return rolling;
+        }
+        RegisteredClients registeredClients = getCachedRegisteredClients();
+        if (registeredClients == null) {
+            throw new ApiKeyStatisticsException(" Registered clients not available for the rolling usage windows");
+        }
+        ClientRegistry registry = ClientRegistry.of(registeredClients);
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        for (int days : analyticsApiConfig.getRollingWindows()) {
+            RollingUsageWindow window = rollingWindows.computeIfAbsent(days, length -> new RollingUsageWindow(length,
+                    analyticsApiConfig.getCallsPerDay(), usageStore.getStateFile("rolling-" + length + "d.state")));
+            try {
+                window.moveTo(usageStore, today);
+            } catch (IOException e) {
+                throw new ApiKeyStatisticsException(" Error moving the " + days + " days usage window - " + e.getMessage(), e);
             }
-            printCSV(list, sDates, analyticsApiConfig.getApiKeyAndDatesCsvFile());
-            return list;
+            ApiKeyUsageAggregator usage = window.aggregate(registry, analyticsApiConfig.getActiveDays());
+            LOG.info("Last {} days - project Active Keys Per Month : {}, Active Keys Per Day : {}; personal Active Keys Per Month : {}, Active Keys Per Day : {}",
+                    days, usage.getActiveKeysPerMonth(ClientType.PROJECT), usage.getActiveKeysPerDay(ClientType.PROJECT),
+                    usage.getActiveKeysPerMonth(ClientType.PERSONAL), usage.getActiveKeysPerDay(ClientType.PERSONAL));
+            rolling.put(days, usage);
         }
-        return Collections.emptyList();
+        return rolling;
     }
 
-
     /**
-     * Returns the maximum of activeKeysPerMonth and activeKeysPerDay for the list of statistics provided
-     * @param list stats
-     * @param message message for logs
-     * @return
+     * Fetches the registered clients from Keycloak, they are kept for the rolling usage windows of this run and,
+     * when the apikey store is enabled, of the next runs
+     * @return registered clients, null if Keycloak did not return them
+     * @throws ApiKeyStatisticsException if the registered clients could not be fetched
      */
-    private int getRegular(List<ApiKeyStats> list, String message) {
-        int activeKeysPerMonth = getActiveKeysPerMonth(list);
-        int activeKeysPerDay   = getActiveKeysPerDay(list);
-        LOG.info("For {} clients - Active Keys Per Month : {}, Active Keys Per Day : {}", message, activeKeysPerMonth, activeKeysPerDay);
-        return Math.max(activeKeysPerDay, activeKeysPerMonth);
+    private synchronized RegisteredClients fetchRegisteredClients() throws ApiKeyStatisticsException {
+        RegisteredClients clients = clientsServiceConnection.getRegisteredClients();
+        if (clients != null) {
+            cachedClients        = clients;
+            cachedClientsFetched = Instant.now();
+            writeCachedClients(clients);
+        }
+        return clients;
     }
 
-
     /**
-     * Removes the internal clients if present in this month statistics
-     * @param list apikey statistics for this month
-     * @param internalClients list of internal clients
+     * Returns the registered clients fetched within the configured time to live, by this run or by an earlier run
+     * which stored them in the apikey store. Expired clients are fetched again from Keycloak.
+     * @return registered clients, null if Keycloak did not return them
+     * @throws ApiKeyStatisticsException if the registered clients could not be fetched
      */
-    private void removeInternalClients(List<ApiKeyStats> list, List<String> internalClients) {
-        List<ApiKeyStats> internalClientStats = list.stream().filter(
-                key -> internalClients.stream().anyMatch(
-                        internal -> internal.equals(key.getApiKey()))).toList();
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("Removing internal clients stats for - {} ", internalClientStats.stream().map(ApiKeyStats::getApiKey).toList());
+    private synchronized RegisteredClients getCachedRegisteredClients() throws ApiKeyStatisticsException {
+        if (cachedClients == null) {
+            readCachedClients();
+        }
+        Instant expired = Instant.now().minus(analyticsApiConfig.getRollingClientsCacheTtl());
+        if (cachedClients != null && cachedClientsFetched.isAfter(expired)) {
+            LOG.info("Using the registered clients fetched from keycloak at {}", cachedClientsFetched);
+            return cachedClients;
+        }
+        LOG.info("Fetching from keycloak registered client list ...... ");
+        return runMetrics.timeCall("registered_clients", this::fetchRegisteredClients);
+    }
+
+    private void readCachedClients() {
+        if (!usageStore.isEnabled()) {
+            return;
+        }
+        Path file = usageStore.getStateFile(REGISTERED_CLIENTS_FILE);
+        if (Files.notExists(file)) {
+            return;
+        }
+        try {
+            Instant fetched = Files.getLastModifiedTime(file).toInstant();
+            cachedClients        = mapper.readValue(file.toFile(), RegisteredClients.class);
+            cachedClientsFetched = fetched;
+        } catch (IOException e) {
+            // fetched again from keycloak
+            LOG.warn("Error reading the cached registered clients {} - {}", file, e.getMessage());
+        }
+    }
+
+    private void writeCachedClients(RegisteredClients clients) {
+        if (!usageStore.isEnabled()) {
+            return;
+        }
+        Path file = usageStore.getStateFile(REGISTERED_CLIENTS_FILE);
+        try {
+            AtomicFiles.write(file, tmp -> mapper.writeValue(tmp.toFile(), clients));
+        } catch (IOException e) {
+            // the next run fetches them again from keycloak
+            LOG.warn("Error caching the registered clients in {} - {}", file, e.getMessage());
         }
-        list.removeAll(internalClientStats); // remove internal stats
     }
 
     /**
-     * Fetches the project and personal clients statistics from this month stats.
-     * @param list apikey statistics for this month
-     * @param projects list of project clients
-     * @param projectClients list to be updated for with project clients only
-     * @param personalClients list to be updated for with personal clients only
+     * Fetches the Statistics of the previous month, from the apikey store if it is enabled or else from ELK,
+     * and starts exporting them to the configured files
+     * @return apikey statistics, empty if there was no usage
+     * @throws ApiKeyStatisticsException if the statistics could not be fetched or read
      */
-    private void fetchProjectAndPersonalClients(List<ApiKeyStats> list, List<String> projects,
-                                                List<ApiKeyStats> projectClients, List<ApiKeyStats> personalClients) {
-        for (ApiKeyStats stat: list) {
-            if (projects.contains(stat.getApiKey())) {
-                projectClients.add(stat);
+    private List<ApiKeyStats> getStats() throws ApiKeyStatisticsException {
+        LOG.info("Fetching monthly apikey usage statistics from ELK ...... ");
+        ApiKeyStatsBuilder builder = new ApiKeyStatsBuilder(analyticsApiConfig.getCallsPerDay());
+        ChronoUnit sliceUnit = analyticsApiConfig.getEsSliceUnit();
+        runMetrics.time("apikey_fetch", () -> {
+            if (usageStore.isEnabled()) {
+                readStoredDays(builder);
+            } else if (sliceUnit != null) {
+                fetchSlices(builder, sliceUnit);
             } else {
-                personalClients.add(stat);
+                fetch(builder, null, null);
             }
-        }
+        });
+        List<ApiKeyStats> list = runMetrics.timeCall("apikey_build", builder::build);
+        runMetrics.count("apikeys", list.size());
+        runMetrics.count("days", builder.getDays().size());
+        exportStats(list, builder.getDays());
+        return list;
     }
 
-    @SuppressWarnings("java:S3740") // the data coming from ELK is in complex format, can not define the specific type
-    private ApiKeyStats getStats(Map bucket, Collection<String> dates) {
-        int total  = 0;
-        int active = 0;
-        ApiKeyStats apikey = new ApiKeyStats((String)bucket.get("key"));
-        for ( String date : dates ) {
-            List b = JsonPath.read(bucket, "$.date.buckets[?(@.key_as_string=='" + date + "')]");
-            int count = ( b.isEmpty() ? 0 : (Integer)((Map)b.get(0)).get("doc_count") );
-            apikey.put(date, count);
-
-            active += (count >= analyticsApiConfig.getCallsPerDay() ? 1 : 0);
-            total  += count;
+    /**
+     * Reads the previous month (UTC) from the apikey usage store, after ingesting the days still missing
+     * @param builder builder to collect the apikey usage of the whole month
+     * @throws ApiKeyStatisticsException if the missing days could not be ingested or the store could not be read
+     */
+    private void readStoredDays(ApiKeyStatsBuilder builder) throws ApiKeyStatisticsException {
+        ingestDailyUsage();
+        LocalDate end   = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+        LocalDate start = end.minusMonths(1);
+        try {
+            int days = usageStore.readDays(start, end, builder);
+            runMetrics.count("stored_days_read", days);
+            LOG.info("Read apikey usage statistics of {} days from {} to {} from the store", days, start, end);
+        } catch (IOException e) {
+            throw new ApiKeyStatisticsException(" Error reading the stored apikey usage - " + e.getMessage(), e);
         }
-        apikey.setTotal(total);
-        apikey.setActive(active);
-        return apikey;
     }
 
     /**
-     * prints the Apikey and dates summary in a csv file
-     * @param list apikey statistics list
-     * @param dates dates of the apikey stats
-     * @throws IOException
+     * Splits the previous month in slices and fetches them in parallel from ELK.
+     * Every slice is parsed in its own builder, the slices are then merged in order.
+     * The slices are always paged with the composite aggregation: the union of the top apikeys of every slice
+     * is not the top apikeys of the month, so a size limited terms aggregation per slice would silently change
+     * the client counts once there are more apikeys than the size of the terms aggregation.
+     * @param builder builder to collect the apikey buckets of the whole month
+     * @param sliceUnit length of a slice
+     * @throws ApiKeyStatisticsException if any of the slices could not be retrieved
      */
-    private void printCSV(List<ApiKeyStats> list, Collection<String> dates, File file) throws ApiKeyStatisticsException {
-        if (file != null) {
-            try (PrintStream ps = new PrintStream(file, "UTF-8")) {
-                printCSVHeader(dates, ps);
-                for (ApiKeyStats stat : list) {
-                    printApiKeyCSV(stat, dates, ps);
-                }
-            } catch (IOException e) {
-                throw new ApiKeyStatisticsException(" Error generating apikey dates CSV file -  " + e.getMessage(), e);
+    private void fetchSlices(ApiKeyStatsBuilder builder, ChronoUnit sliceUnit) throws ApiKeyStatisticsException {
+        LocalDate end   = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+        LocalDate start = end.minusMonths(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(analyticsApiConfig.getEsSliceParallelism());
+        try {
+            List<Future<ApiKeyStatsBuilder>> slices = new ArrayList<>();
+            for (LocalDate from = start; from.isBefore(end); from = from.plus(1, sliceUnit)) {
+                LocalDate sliceFrom = from;
+                LocalDate sliceTo   = (from.plus(1, sliceUnit).isBefore(end) ? from.plus(1, sliceUnit) : end);
+                slices.add(executor.submit(() -> {
+                    ApiKeyStatsBuilder sliceBuilder = new ApiKeyStatsBuilder(analyticsApiConfig.getCallsPerDay());
+                    fetchPages(sliceBuilder, sliceFrom, sliceTo);
+                    return sliceBuilder;
+                }));
             }
-        } else {
-            LOG.info("Not generating Apikey/dates csv file. Target csv file not provided");
+            LOG.info("Fetching apikey usage statistics from {} to {} in {} slices", start, end, slices.size());
+
+            for (Future<ApiKeyStatsBuilder> slice : slices) {
+                builder.merge(slice.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiKeyStatisticsException cause) {
+                throw cause;
+            }
+            throw new ApiKeyStatisticsException(" Error fetching the apikey statistics slices - " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiKeyStatisticsException(" Interrupted while fetching the apikey statistics slices", e);
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private void printCSVHeader(Collection<String> dates, PrintStream ps) {
-        ps.print("APIKEY");
-        for ( String date : dates ) {
-            ps.print(",");
-            ps.print(date);
+    /**
+     * Fetches the apikey buckets from ELK, the response is parsed into the handler as it is received
+     * @param handler handler to collect the apikey buckets
+     * @param from first day (inclusive), null for the configured range
+     * @param to last day (exclusive), null for the configured range
+     * @throws ApiKeyStatisticsException if the statistics could not be retrieved
+     */
+    private void fetch(ApiKeyAggregationParser.ApiKeyBucketHandler handler, LocalDate from, LocalDate to) throws ApiKeyStatisticsException {
+        if (analyticsApiConfig.isEsPagingEnabled()) {
+            fetchPages(handler, from, to);
+        } else {
+            elasticSearchConnection.getApiKeyData(from, to, response -> aggregationParser.parse(response, handler));
         }
-        ps.print(",Total,Active Days");
-        ps.println();
     }
 
     /**
-     * prints the Apikey and dates summary in a csv file
-     * @param stat apikey statistics
-     * @param dates dates of the apikey stats
-     * @throws IOException
+     * Fetches the apikey buckets from ELK page by page using a composite aggregation.
+     * Every page is parsed into the handler before the next one is requested.
+     * @param handler handler to collect the apikey buckets
+     * @param from first day (inclusive), null for the configured range
+     * @param to last day (exclusive), null for the configured range
+     * @throws ApiKeyStatisticsException if any of the pages could not be retrieved
      */
-    private void printApiKeyCSV(ApiKeyStats stat, Collection<String> dates, PrintStream ps) {
-        ps.print(stat.getApiKey());
-        for ( String date : dates ) {
-            ps.print(",");
-            ps.print(stat.get(date));
+    private void fetchPages(ApiKeyAggregationParser.ApiKeyBucketHandler handler, LocalDate from, LocalDate to) throws ApiKeyStatisticsException {
+        Map<String, String> afterKey = null;
+        int pages = 0;
+        do {
+            afterKey = elasticSearchConnection.getApiKeyDataPage(analyticsApiConfig.getEsPageSize(), afterKey, from, to,
+                    response -> aggregationParser.parse(response, handler));
+            pages++;
+        } while (afterKey != null);
+        runMetrics.count("es_pages", pages);
+        LOG.info("Fetched apikey usage statistics from ELK in {} pages", pages);
+    }
+
+    /**
+     * Waits until the apikey/dates csv and matrix files of the last statistics are written
+     * @throws ApiKeyStatisticsException if any of the files could not be written
+     */
+    public void awaitExports() throws ApiKeyStatisticsException {
+        try {
+            export.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ApiKeyStatisticsException cause) {
+                throw cause;
+            }
+            throw new ApiKeyStatisticsException(" Error exporting the apikey statistics -  " + e.getMessage(), e);
         }
-        ps.print(",");
-        ps.print(stat.getTotal());
-        ps.print(",");
-        ps.print(stat.getActive());
-        ps.println();
     }
 
     /**
-     * Returns the Active keys per day
+     * Exports the apikey statistics to the configured csv and matrix files.
+     * The files are written on their own thread, {@link #awaitExports()} waits until they are done.
      * @param list apikey statistics list
-     * @return
+     * @param days days of the apikey stats
      */
-    private int getActiveKeysPerDay(List<ApiKeyStats> list) {
-        int count = 0;
-        for ( ApiKeyStats stat : list ) {
-            count += (stat.getActive() >= analyticsApiConfig.getActiveDays() ? 1 : 0);
+    private void exportStats(List<ApiKeyStats> list, DayIndex days) {
+        File csvFile    = analyticsApiConfig.getApiKeyAndDatesCsvFile();
+        File matrixFile = analyticsApiConfig.getApiKeyMatrixFile();
+        if (csvFile == null) {
+            LOG.info("Not generating Apikey/dates csv file. Target csv file not provided");
+        }
+        if (csvFile == null && matrixFile == null) {
+            return;
         }
-        return (count - 1);
+        export = CompletableFuture.runAsync(() -> {
+            try {
+                if (csvFile != null) {
+                    printCSV(list, days, csvFile);
+                }
+                if (matrixFile != null) {
+                    ApiKeyMatrixFile.write(matrixFile, list, days);
+                    LOG.info("Apikey matrix file with {} apikeys and {} days written to {}", list.size(), days.size(), matrixFile);
+                }
+            } catch (IOException e) {
+                throw new CompletionException(
+                        new ApiKeyStatisticsException(" Error exporting the apikey statistics -  " + e.getMessage(), e));
+            }
+        }, runnable -> new Thread(runnable, "apikey-stats-export").start());
     }
 
     /**
-     * Returns the Active keys per month
+     * prints the Apikey and dates summary in a csv file
      * @param list apikey statistics list
-     * @return
+     * @param days days of the apikey stats
+     * @param file target csv file
+     * @throws IOException
      */
-    private int getActiveKeysPerMonth(List<ApiKeyStats> list) {
-        int count = 0;
-        int days  = list.get(0).size();
-        int thold = days * analyticsApiConfig.getCallsPerDay();
-        for ( ApiKeyStats stat : list ) {
-            count += (stat.getTotal() >= thold ? 1 : 0);
+    private void printCSV(List<ApiKeyStats> list, DayIndex days, File file) throws IOException {
+        boolean gzip = analyticsApiConfig.isApiKeyAndDatesCsvGzip();
+        File target = (gzip && !file.getName().endsWith(".gz") ? new File(file.getPath() + ".gz") : file);
+        try (CsvWriter csv = new CsvWriter(target, gzip)) {
+            printCSV(list, days, csv);
         }
-        return (count - 1);
+        LOG.info("Apikey/dates csv file with {} apikeys written to {}", list.size(), target);
     }
 
     /**
-     * Fetches the internal client usage for this month
-     * @param list Apikey statistics from ELK
-     * @param internalClients internal client list
-     * @return total usage of internal clients
+     * prints the Apikey and dates summary as csv
+     * @param list apikey statistics list
+     * @param days days of the apikey stats
+     * @param csv csv writer
+     * @throws IOException
      */
-    private int getInternalClientUsage(List<ApiKeyStats> list, List<String> internalClients) {
-        int traffic = 0;
-        for(ApiKeyStats stats : list) {
-            if (internalClients.contains(stats.getApiKey())) {
-                traffic += stats.getTotal();
-            }
+    static void printCSV(List<ApiKeyStats> list, DayIndex days, CsvWriter csv) throws IOException {
+        printCSVHeader(days, csv);
+        for (ApiKeyStats stat : list) {
+            printApiKeyCSV(stat, csv);
+        }
+    }
+
+    private static void printCSVHeader(DayIndex days, CsvWriter csv) throws IOException {
+        csv.field("APIKEY");
+        for ( int day = 0; day < days.size(); day++ ) {
+            csv.field(days.getDay(day));
         }
-        return traffic;
+        csv.field("Total").field("Active Days");
+        csv.endRow();
     }
 
     /**
-     * Fetches the external client usage for this month
-     * @param list Apikey statistics from ELK
-     * @param internalClients internal client list to be excluded from the usage total
-     * @return total usage of external clients
+     * prints the Apikey and dates summary in a csv file
+     * @param stat apikey statistics
+     * @throws IOException
      */
-    private int getExternalClientUsage(List<ApiKeyStats> list, List<String> internalClients) {
-        int traffic = 0;
-        for(ApiKeyStats stats : list) {
-            if (!internalClients.contains(stats.getApiKey())) {
-                traffic += stats.getTotal();
-            }
+    private static void printApiKeyCSV(ApiKeyStats stat, CsvWriter csv) throws IOException {
+        csv.field(stat.getApiKey());
+        for ( int day = 0; day < stat.getDays().size(); day++ ) {
+            csv.field(stat.getCount(day));
         }
-        return traffic;
+        csv.field(stat.getTotal()).field(stat.getActive());
+        csv.endRow();
     }
-
 }
@@ -0,0 +1,171 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.model.ClientType;
+import eu.europeana.api.commons.definitions.statistics.user.ELKMetric;
+
+import java.util.List;
+
+/**
+ * Computes all the inputs of the monthly {@link ELKMetric} in a single pass over the apikey statistics.
+ * Every apikey is classified, counted for the internal or external usage and, for external clients,
+ * counted as project or personal client and checked against the regular usage thresholds.
+ * Aggregators can be combined, which allows a fork-join (parallel stream) aggregation of large key sets.
+ */
+public class ApiKeyUsageAggregator {
+
+    private final ClientRegistry registry;
+    private final int monthlyThreshold;
+    private final int activeDays;
+
+    private int internalTraffic;
+    private int externalTraffic;
+    private final Group project  = new Group();
+    private final Group personal = new Group();
+
+    /**
+     * Constructor
+     * @param registry client type per registered apikey
+     * @param days number of days of the statistics
+     * @param callsPerDay minimum calls per day for a regular client
+     * @param activeDays minimum active days for a regular client
+     */
+    public ApiKeyUsageAggregator(ClientRegistry registry, int days, int callsPerDay, int activeDays) {
+        this.registry         = registry;
+        this.monthlyThreshold = days * callsPerDay;
+        this.activeDays       = activeDays;
+    }
+
+    /**
+     * Aggregates the apikey statistics
+     * @param list apikey statistics for this month
+     * @param registry client type per registered apikey
+     * @param days number of days of the statistics
+     * @param callsPerDay minimum calls per day for a regular client
+     * @param activeDays minimum active days for a regular client
+     * @param parallel if true the statistics are aggregated in parallel on the common fork-join pool
+     * @return the aggregated usage
+     */
+    public static ApiKeyUsageAggregator aggregate(List<ApiKeyStats> list, ClientRegistry registry, int days,
+                                                  int callsPerDay, int activeDays, boolean parallel) {
+        if (parallel) {
+            return list.parallelStream().collect(
+                    () -> new ApiKeyUsageAggregator(registry, days, callsPerDay, activeDays),
+                    ApiKeyUsageAggregator::add,
+                    ApiKeyUsageAggregator::combine);
+        }
+        ApiKeyUsageAggregator aggregator = new ApiKeyUsageAggregator(registry, days, callsPerDay, activeDays);
+        for (ApiKeyStats stat : list) {
+            aggregator.add(stat);
+        }
+        return aggregator;
+    }
+
+    /**
+     * Classifies the apikey statistics and adds it to the aggregation
+     * @param stat apikey statistics
+     */
+    public void add(ApiKeyStats stat) {
+        add(stat.getApiKey(), stat.getTotal(), stat.getActive());
+    }
+
+    /**
+     * Classifies the apikey and adds its usage to the aggregation
+     * @param apikey apikey
+     * @param total total calls of the apikey
+     * @param active active days of the apikey
+     * @return the client type of the apikey
+     */
+    public ClientType add(String apikey, int total, int active) {
+        ClientType type = registry.classify(apikey);
+        if (type == ClientType.INTERNAL) {
+            internalTraffic += total;
+            return type;
+        }
+        externalTraffic += total;
+        Group group = getGroup(type);
+        group.clients++;
+        group.activePerMonth += (total  >= monthlyThreshold ? 1 : 0);
+        group.activePerDay   += (active >= activeDays       ? 1 : 0);
+        return type;
+    }
+
+    /**
+     * Adds the aggregation of the other aggregator to this one
+     * @param other aggregator over other apikey statistics
+     */
+    public void combine(ApiKeyUsageAggregator other) {
+        internalTraffic += other.internalTraffic;
+        externalTraffic += other.externalTraffic;
+        project.combine(other.project);
+        personal.combine(other.personal);
+    }
+
+    public int getInternalTraffic()     { return internalTraffic; }
+    public int getExternalTraffic()     { return externalTraffic; }
+    public int getExternalClients()     { return project.clients + personal.clients; }
+    public int getProjectClients()      { return project.clients; }
+    public int getPersonalClients()     { return personal.clients; }
+
+    /**
+     * @param type project or personal
+     * @return number of keys of the type with at least <code>days * callsPerDay</code> calls
+     */
+    public int getActiveKeysPerMonth(ClientType type) { return getGroup(type).activePerMonth; }
+
+    /**
+     * @param type project or personal
+     * @return number of keys of the type with at least <code>activeDays</code> active days
+     */
+    public int getActiveKeysPerDay(ClientType type)   { return getGroup(type).activePerDay; }
+
+    /**
+     * @return active project keys per month, the same way the monthly metric has always reported it (count - 1)
+     */
+    public int getProjectActiveKeysPerMonth()  { return project.activePerMonth - 1; }
+    public int getProjectActiveKeysPerDay()    { return project.activePerDay - 1; }
+    public int getPersonalActiveKeysPerMonth() { return personal.activePerMonth - 1; }
+    public int getPersonalActiveKeysPerDay()   { return personal.activePerDay - 1; }
+
+    /**
+     * @return the maximum of active keys per month and active keys per day of the project clients
+     */
+    public int getRegularCustomer() {
+        return Math.max(getProjectActiveKeysPerDay(), getProjectActiveKeysPerMonth());
+    }
+
+    /**
+     * @return the maximum of active keys per month and active keys per day of the personal clients
+     */
+    public int getRegularUser() {
+        return Math.max(getPersonalActiveKeysPerDay(), getPersonalActiveKeysPerMonth());
+    }
+
+    /**
+     * @return the elk metric of the aggregated usage
+     */
+    public ELKMetric toELKMetric() {
+        return new ELKMetric(getRegularCustomer(), getProjectClients(),
+                getRegularUser(), getPersonalClients(),
+                getExternalClients(),
+                externalTraffic,
+                internalTraffic);
+    }
+
+    private Group getGroup(ClientType type) {
+        return (type == ClientType.PROJECT ? project : personal);
+    }
+
+    private static final class Group {
+        private int clients;
+        private int activePerMonth;
+        private int activePerDay;
+
+        private void combine(Group other) {
+            clients        += other.clients;
+            activePerMonth += other.activePerMonth;
+            activePerDay   += other.activePerDay;
+        }
+    }
+}
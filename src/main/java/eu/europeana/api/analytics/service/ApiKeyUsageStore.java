@@ -0,0 +1,178 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.utils.AtomicFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local store of the daily apikey usage.
+ * Every day is kept in its own compact binary file (yyyy-MM-dd.bin) holding the number of calls per apikey,
+ * so the daily runs can ingest one day at a time and the monthly statistics are built from the stored days
+ * instead of querying Elastic search for the whole month.
+ * The store is disabled when no directory is configured.
+ */
+public class ApiKeyUsageStore {
+
+    private static final Logger LOG = LogManager.getLogger(ApiKeyUsageStore.class);
+
+    private static final int    FORMAT_VERSION = 1;
+    private static final String EXTENSION      = ".bin";
+
+    private final Path directory;
+    private final int  retentionDays;
+
+    /**
+     * Constructor
+     * @param directory directory of the daily files, null to disable the store
+     * @param retentionDays days older than this are removed from the store
+     */
+    public ApiKeyUsageStore(File directory, int retentionDays) {
+        this.directory     = (directory == null ? null : directory.toPath());
+        this.retentionDays = retentionDays;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * @param day day to check
+     * @return true if the usage of the day is stored
+     */
+    public boolean hasDay(LocalDate day) {
+        return isEnabled() && Files.exists(getFile(day));
+    }
+
+    /**
+     * Returns the days of the range which are not stored yet
+     * @param from first day (inclusive)
+     * @param to last day (exclusive)
+     * @return missing days in ascending order
+     */
+    public List<LocalDate> getMissingDays(LocalDate from, LocalDate to) {
+        List<LocalDate> missing = new ArrayList<>();
+        for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+            if (!hasDay(day)) {
+                missing.add(day);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Stores the usage of a day, replacing any usage stored before for that day
+     * @param day day of the usage
+     * @param usage calls per apikey
+     * @throws IOException if the day could not be written
+     */
+    public void writeDay(LocalDate day, DayUsage usage) throws IOException {
+        AtomicFiles.write(getFile(day), tmp -> {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(usage.calls.size());
+                for (Map.Entry<String, Integer> entry : usage.calls.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue());
+                }
+            }
+        });
+        LOG.info("Stored the usage of {} apikeys for {}", usage.calls.size(), day);
+    }
+
+    /**
+     * Reads the stored days of the range into the handler, one day after the other.
+     * The date of a day is the same String instance for all the apikeys.
+     * @param from first day (inclusive)
+     * @param to last day (exclusive)
+     * @param handler receives the calls of every apikey per day
+     * @return number of days read
+     * @throws IOException if a stored day could not be read
+     */
+    public int readDays(LocalDate from, LocalDate to, ApiKeyAggregationParser.ApiKeyBucketHandler handler) throws IOException {
+        int read = 0;
+        for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+            if (!hasDay(day)) {
+                continue;
+            }
+            String[] date = { day.toString() };
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getFile(day))))) {
+                int version = in.readInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported apikey usage file version " + version + " for " + day);
+                }
+                int apikeys = in.readInt();
+                for (int i = 0; i < apikeys; i++) {
+                    handler.accept(in.readUTF(), date, new int[] { in.readInt() });
+                }
+            }
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * Removes the days older than the retention period
+     * @param today current day
+     */
+    public void prune(LocalDate today) {
+        if (!isEnabled() || !Files.isDirectory(directory)) {
+            return;
+        }
+        LocalDate oldest = today.minusDays(retentionDays);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (LocalDate.parse(name.substring(0, name.length() - EXTENSION.length())).isBefore(oldest)) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException | DateTimeParseException e) {
+            LOG.warn("Error removing old days from the apikey usage store - {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @param name name of the file
+     * @return file in the directory of the store, for state derived from the stored days
+     */
+    public Path getStateFile(String name) {
+        return directory.resolve(name);
+    }
+
+    private Path getFile(LocalDate day) {
+        return directory.resolve(day + EXTENSION);
+    }
+
+    /**
+     * Collects the calls per apikey of one day as parsed from the Elastic search response
+     */
+    public static class DayUsage implements ApiKeyAggregationParser.ApiKeyBucketHandler {
+
+        private final Map<String, Integer> calls = new LinkedHashMap<>();
+
+        @Override
+        public void accept(String apikey, String[] dates, int[] counts) {
+            int total = 0;
+            for (int count : counts) {
+                total += count;
+            }
+            calls.merge(apikey, total, Integer::sum);
+        }
+    }
+}
@@ -6,13 +6,13 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import eu.europeana.api.analytics.exception.ApiKeyStatisticsException;
 import eu.europeana.api.analytics.model.RegisteredClients;
 import eu.europeana.api.commons.auth.AuthenticationHandler;
-import eu.europeana.api.commons.http.HttpConnection;
-import eu.europeana.api.commons.http.HttpResponseHandler;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Class to connect to keycloak and get the Registerd clients
@@ -22,7 +22,7 @@ public class ClientsServiceConnection {
 
     private static final Logger LOG = LogManager.getLogger(ClientsServiceConnection.class);
 
-    protected final HttpConnection        clientConnection;
+    protected final StreamingHttpConnection clientConnection;
     private   final AuthenticationHandler auth;
     private   final String                registeredClientsUrl;
     private   final ObjectMapper          mapper;
@@ -32,11 +32,13 @@ public class ClientsServiceConnection {
      * @param registeredClientsUrl url for the registered client endpoint
      * @param auth authentication for the url
      * @param mapper mapper to read the response
+     * @param clientConnection connection to execute the requests
      */
-    public ClientsServiceConnection(String registeredClientsUrl, AuthenticationHandler auth, ObjectMapper mapper) {
+    public ClientsServiceConnection(String registeredClientsUrl, AuthenticationHandler auth, ObjectMapper mapper,
+                                    StreamingHttpConnection clientConnection) {
         this.auth                       = auth;
         this.registeredClientsUrl       = registeredClientsUrl;
-        this.clientConnection           = new HttpConnection(true);
+        this.clientConnection           = clientConnection;
         this.mapper                     = mapper;
     }
 
@@ -47,22 +49,22 @@ public class ClientsServiceConnection {
      */
     public RegisteredClients getRegisteredClients() throws ApiKeyStatisticsException {
         try  {
-            HttpResponseHandler rsp = clientConnection.get(registeredClientsUrl, "application/json", auth);
-            int responseCode = rsp.getStatus();
-            if (responseCode == HttpStatus.SC_OK) {
-                return mapper.readValue(rsp.getResponse(), RegisteredClients.class);
-            } else {
-                String errorMessage = extractErrorMessage(rsp.getResponse());
+            return clientConnection.get(registeredClientsUrl, "application/json", auth, (responseCode, response) -> {
+                if (responseCode == HttpStatus.SC_OK) {
+                    return mapper.readValue(response, RegisteredClients.class);
+                }
+                String errorMessage = extractErrorMessage(response);
                 LOG.error("Error retrieving registered clients from Keycloak  : url-{}, code-{}, reason-{}",
                         this.registeredClientsUrl, responseCode, errorMessage);
                 return null;
-            }
+            });
         } catch (IOException e) {
             throw new ApiKeyStatisticsException("Error while getting response from keycloak - " + registeredClientsUrl + " " + e.getMessage(), e);
         }
     }
 
-    private String extractErrorMessage(String json) {
+    private String extractErrorMessage(InputStream response) throws IOException {
+        String json = new String(response.readAllBytes(), StandardCharsets.UTF_8);
         try {
             JsonNode node = mapper.readTree(json);
             if (node.has("error")) {
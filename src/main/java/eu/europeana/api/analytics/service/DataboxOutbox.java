@@ -0,0 +1,232 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.analytics.model.DataboxKpi;
+import eu.europeana.api.analytics.model.OutboxEntry;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Durable local outbox of the databox push requests.
+ * Every push request is appended to the spool file (one json entry per line, fsynced) before it is sent,
+ * and a delivery marker is appended once the push succeeded. The requests without a delivery marker can be
+ * resent later without fetching the statistics again.
+ * The outbox is disabled when no spool file is configured.
+ */
+public class DataboxOutbox {
+
+    private static final Logger LOG = LogManager.getLogger(DataboxOutbox.class);
+
+    private final Path         file;
+    private final ObjectMapper mapper;
+
+    /**
+     * Constructor
+     * @param file spool file, null to disable the outbox
+     * @param mapper mapper to write and read the entries
+     */
+    public DataboxOutbox(File file, ObjectMapper mapper) {
+        this.file   = (file == null ? null : file.toPath());
+        this.mapper = mapper;
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Appends a push request to the outbox
+     * @param metrics name of the metrics of the request
+     * @param kpis KPIs of the request
+     * @return id of the request, null if the outbox is disabled
+     * @throws IOException if the request could not be written
+     */
+    public synchronized String append(String metrics, List<DataboxKpi> kpis) throws IOException {
+        if (!isEnabled()) {
+            return null;
+        }
+        OutboxEntry entry = new OutboxEntry();
+        entry.setType(OutboxEntry.REQUEST);
+        entry.setId(UUID.randomUUID().toString());
+        entry.setCreated(ZonedDateTime.now().toString());
+        entry.setMetrics(metrics);
+        entry.setKpis(kpis);
+        write(entry);
+        return entry.getId();
+    }
+
+    /**
+     * Marks the push request as delivered
+     * @param id id of the request
+     * @throws IOException if the marker could not be written
+     */
+    public synchronized void markDelivered(String id) throws IOException {
+        if (!isEnabled() || id == null) {
+            return;
+        }
+        OutboxEntry entry = new OutboxEntry();
+        entry.setType(OutboxEntry.DELIVERED);
+        entry.setId(id);
+        write(entry);
+    }
+
+    /**
+     * Returns the push requests which were not delivered, in the order they were appended
+     * @return undelivered push requests
+     * @throws IOException if the spool file could not be read
+     */
+    public synchronized List<OutboxEntry> getUndelivered() throws IOException {
+        List<OutboxEntry> undelivered = new ArrayList<>();
+        Set<String> delivered = new HashSet<>();
+        readRequests(undelivered, delivered);
+        undelivered.removeIf(entry -> delivered.contains(entry.getId()));
+        return undelivered;
+    }
+
+    /**
+     * Returns the push requests to replay: the requests which were not delivered, in the order they were created.
+     * The KPIs of a series which a request created later already delivered are removed from the request, so a
+     * replay never overwrites a newer value. The spool file is only removed once all its requests are delivered,
+     * so all the requests delivered since the oldest undelivered one are still in it.
+     * @return undelivered push requests, some may have no KPIs left
+     * @throws IOException if the spool file could not be read
+     */
+    public synchronized List<OutboxEntry> getReplay() throws IOException {
+        List<OutboxEntry> requests = new ArrayList<>();
+        Set<String> delivered = new HashSet<>();
+        readRequests(requests, delivered);
+
+        // creation of the newest delivered value of every series
+        Map<String, Instant> newestDelivered = new HashMap<>();
+        List<OutboxEntry> undelivered = new ArrayList<>();
+        for (OutboxEntry entry : requests) {
+            if (!delivered.contains(entry.getId())) {
+                undelivered.add(entry);
+                continue;
+            }
+            Instant created = getCreated(entry);
+            for (DataboxKpi kpi : entry.getKpis()) {
+                newestDelivered.merge(kpi.getSeriesKey(), created, (a, b) -> a.isAfter(b) ? a : b);
+            }
+        }
+        undelivered.sort(Comparator.comparing(DataboxOutbox::getCreated));
+        for (OutboxEntry entry : undelivered) {
+            Instant created = getCreated(entry);
+            entry.setKpis(entry.getKpis().stream().filter(kpi -> {
+                Instant newer = newestDelivered.get(kpi.getSeriesKey());
+                return newer == null || !newer.isAfter(created);
+            }).toList());
+        }
+        return undelivered;
+    }
+
+    /**
+     * @param entry push request
+     * @return when the push request was created, the epoch if unknown
+     */
+    public static Instant getCreated(OutboxEntry entry) {
+        try {
+            return entry.getCreated() == null ? Instant.EPOCH : ZonedDateTime.parse(entry.getCreated()).toInstant();
+        } catch (DateTimeParseException e) {
+            return Instant.EPOCH;
+        }
+    }
+
+    /**
+     * Reads the push requests, in the order they were appended, and the ids of the delivered ones
+     */
+    private void readRequests(List<OutboxEntry> requests, Set<String> delivered) throws IOException {
+        if (!isEnabled() || !Files.exists(file)) {
+            return;
+        }
+        Map<String, OutboxEntry> appended = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                OutboxEntry entry = read(line);
+                if (entry == null) {
+                    continue;
+                }
+                if (OutboxEntry.REQUEST.equals(entry.getType())) {
+                    appended.put(entry.getId(), entry);
+                } else if (OutboxEntry.DELIVERED.equals(entry.getType())) {
+                    delivered.add(entry.getId());
+                }
+            }
+        }
+        requests.addAll(appended.values());
+    }
+
+    /**
+     * Removes the spool file when all the push requests in it are delivered
+     * @throws IOException if the spool file could not be read or deleted
+     */
+    public synchronized void compact() throws IOException {
+        if (isEnabled() && getUndelivered().isEmpty() && Files.deleteIfExists(file)) {
+            LOG.info("All databox push requests delivered, removed outbox {}", file);
+        }
+    }
+
+    private OutboxEntry read(String line) {
+        try {
+            return mapper.readValue(line, OutboxEntry.class);
+        } catch (JsonProcessingException e) {
+            // a crash while writing can leave an incomplete last line
+            LOG.warn("Skipping invalid databox outbox entry - {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Appends the entry as one line. A crash while writing can leave an incomplete last line, in which case the
+     * entry starts on a new line so that only the incomplete line is skipped when reading and not this entry.
+     */
+    private void write(OutboxEntry entry) throws IOException {
+        String json = mapper.writeValueAsString(entry) + "\n";
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size > 0 && !endsWithNewline(channel, size)) {
+                LOG.warn("Databox outbox {} ends with an incomplete entry", file);
+                json = "\n" + json;
+            }
+            ByteBuffer line = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+            long position = size;
+            while (line.hasRemaining()) {
+                position += channel.write(line, position);
+            }
+            channel.force(true);
+        }
+    }
+
+    private static boolean endsWithNewline(FileChannel channel, long size) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        return channel.read(last, size - 1) == 1 && last.get(0) == '\n';
+    }
+}
@@ -0,0 +1,184 @@
+package eu.europeana.api.analytics.service;
+
+import com.databox.sdk.Databox;
+import com.databox.sdk.KPI;
+import eu.europeana.api.analytics.exception.DataboxPushFailedException;
+import eu.europeana.api.analytics.jfr.DataboxPushEvent;
+import eu.europeana.api.analytics.model.DataboxKpi;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pushes KPIs to databox asynchronously.
+ * At most <code>concurrency</code> push requests are in flight at the same time, failed requests are
+ * retried with exponential backoff and jitter. {@link #awaitCompletion()} waits for all the submitted
+ * requests and reports the ones which failed after all the attempts.
+ */
+public class DataboxPushExecutor {
+
+    private static final Logger LOG = LogManager.getLogger(DataboxPushExecutor.class);
+
+    private static final String RESULT_DELIVERED = "delivered";
+    private static final String RESULT_FAILED    = "failed";
+
+    private final Databox databox;
+    private final int     maxAttempts;
+    private final long    initialBackoffMillis;
+    private final long    maxBackoffMillis;
+    private final RunMetrics runMetrics;
+
+    private final ExecutorService executor;
+    private final List<PushRequest> requests = new ArrayList<>();
+
+    /**
+     * Constructor
+     * @param databox databox instance
+     * @param concurrency maximum number of push requests in flight
+     * @param maxAttempts maximum number of attempts per push request
+     * @param initialBackoffMillis backoff before the first retry
+     * @param maxBackoffMillis maximum backoff between two attempts
+     * @param runMetrics records the push requests
+     */
+    public DataboxPushExecutor(Databox databox, int concurrency, int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+                               RunMetrics runMetrics) {
+        this.databox              = databox;
+        this.maxAttempts          = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis     = maxBackoffMillis;
+        this.runMetrics           = runMetrics;
+        this.executor             = Executors.newFixedThreadPool(Math.max(1, concurrency));
+    }
+
+    /**
+     * Submits a push request
+     * @param metrics name of the metrics in the request, used for logging and error reporting
+     * @param kpis KPIs to push in one request
+     * @param onDelivered called once the request is pushed successfully, can be null
+     */
+    public void submit(String metrics, List<DataboxKpi> kpis, Runnable onDelivered) {
+        submit(metrics, kpis, null, onDelivered);
+    }
+
+    /**
+     * Submits a push request with KPIs dated at the given date
+     * @param metrics name of the metrics in the request, used for logging and error reporting
+     * @param kpis KPIs to push in one request
+     * @param date date of the KPIs, null to let databox date them when they are received
+     * @param onDelivered called once the request is pushed successfully, can be null
+     */
+    public void submit(String metrics, List<DataboxKpi> kpis, Date date, Runnable onDelivered) {
+        List<KPI> request = new ArrayList<>(kpis.size());
+        for (DataboxKpi kpi : kpis) {
+            request.add(kpi.toKPI(date));
+        }
+        requests.add(new PushRequest(metrics, executor.submit(() -> {
+            push(metrics, request);
+            if (onDelivered != null) {
+                onDelivered.run();
+            }
+            return null;
+        })));
+    }
+
+    /**
+     * Waits until all the submitted push requests are done
+     * @throws DataboxPushFailedException if any of the push requests failed after all the attempts
+     */
+    public void awaitCompletion() throws DataboxPushFailedException {
+        List<String> failed = new ArrayList<>();
+        Throwable firstFailure = null;
+        try {
+            for (PushRequest request : requests) {
+                try {
+                    request.future.get();
+                } catch (ExecutionException e) {
+                    failed.add(request.metrics);
+                    firstFailure = (firstFailure == null ? e.getCause() : firstFailure);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataboxPushFailedException("Interrupted while waiting for the push requests to complete.");
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!failed.isEmpty()) {
+            throw new DataboxPushFailedException(String.join(", ", failed),
+                    failed.size() + " of " + requests.size() + " push requests failed. "
+                            + (firstFailure != null ? firstFailure.getLocalizedMessage() : ""), firstFailure);
+        }
+    }
+
+    private void push(String metrics, List<KPI> kpis) throws InterruptedException {
+        long start = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            runMetrics.add(RunMetrics.Metric.DATABOX_PUSH_ATTEMPTS, 1);
+            DataboxPushEvent event = new DataboxPushEvent();
+            event.begin();
+            try {
+                databox.push(kpis);
+                commit(event, metrics, kpis.size(), attempt, true);
+                LOG.info("Successfully pushed {} KPIs of {} to databox", kpis.size(), metrics);
+                recordPush(RESULT_DELIVERED, kpis.size(), start);
+                return;
+            } catch (RuntimeException e) {
+                commit(event, metrics, kpis.size(), attempt, false);
+                if (attempt >= maxAttempts) {
+                    LOG.error("Failed to push {} to databox after {} attempts", metrics, attempt, e);
+                    recordPush(RESULT_FAILED, kpis.size(), start);
+                    throw e;
+                }
+                long backoff = getBackoff(attempt);
+                LOG.warn("Push of {} to databox failed (attempt {} of {}), retrying in {} ms - {}",
+                        metrics, attempt, maxAttempts, backoff, e.getLocalizedMessage());
+                Thread.sleep(backoff);
+            }
+        }
+    }
+
+    private static void commit(DataboxPushEvent event, String metrics, int kpis, int attempt, boolean success) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.metrics = metrics;
+            event.kpis    = kpis;
+            event.attempt = attempt;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    private void recordPush(String result, int kpis, long start) {
+        runMetrics.addElapsed(RunMetrics.Metric.DATABOX_PUSH_DURATION_SECONDS, start, result);
+        runMetrics.add(RunMetrics.Metric.DATABOX_PUSH_REQUESTS, 1, result);
+        runMetrics.add(RunMetrics.Metric.DATABOX_PUSH_KPIS, kpis, result);
+    }
+
+    /**
+     * Exponential backoff with full jitter
+     * @param attempt number of the failed attempt, starting at 1
+     * @return backoff in milliseconds
+     */
+    private long getBackoff(int attempt) {
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 30));
+        return backoff <= 0 ? 0 : ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+
+    private static final class PushRequest {
+        private final String    metrics;
+        private final Future<?> future;
+
+        private PushRequest(String metrics, Future<?> future) {
+            this.metrics = metrics;
+            this.future  = future;
+        }
+    }
+}
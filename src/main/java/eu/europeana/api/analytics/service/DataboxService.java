@@ -1,22 +1,36 @@
 package eu.europeana.api.analytics.service;
 
 import com.databox.sdk.Databox;
+import eu.europeana.api.analytics.config.AnalyticsApiConfig;
 import eu.europeana.api.analytics.exception.DataboxPushFailedException;
+import eu.europeana.api.analytics.model.DataboxKpi;
+import eu.europeana.api.analytics.model.OutboxEntry;
 import eu.europeana.api.analytics.utils.DataboxUtils;
+import eu.europeana.api.analytics.utils.KpiBatch;
 import eu.europeana.api.commons.definitions.statistics.entity.EntitiesPerLanguage;
 import eu.europeana.api.commons.definitions.statistics.entity.EntityMetric;
 import eu.europeana.api.commons.definitions.statistics.search.SearchMetric;
 import eu.europeana.api.commons.definitions.statistics.set.SetMetric;
 import eu.europeana.api.commons.definitions.statistics.user.ELKMetric;
 import eu.europeana.api.commons.definitions.statistics.user.UserMetric;
+import jakarta.annotation.Resource;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static eu.europeana.api.analytics.utils.Constants.RUN_METRICS;
 import static eu.europeana.api.commons.definitions.statistics.UsageStatsFields.*;
 
 /**
  * databox service class
+ * The metrics are added to a {@link KpiBatch} which is pushed to databox in as few requests as possible
  * @author srishti singh
  */
 @Service
@@ -26,13 +40,162 @@ public class DataboxService {
 
     protected final Databox databox;
 
+    private final DataboxOutbox outbox;
+
+    private final KpiValueStore kpiValueStore;
+
+    @Resource
+    private AnalyticsApiConfig analyticsApiConfig;
+
+    @Resource(name = RUN_METRICS)
+    private RunMetrics runMetrics;
+
     /**
      * Constructor
      * @param databox datobox token
+     * @param outbox local outbox of the push requests
+     * @param kpiValueStore last pushed value of the KPIs
      */
     @Autowired
-    public DataboxService(Databox databox) {
-        this.databox = databox;
+    public DataboxService(Databox databox, DataboxOutbox outbox, KpiValueStore kpiValueStore) {
+        this.databox       = databox;
+        this.outbox        = outbox;
+        this.kpiValueStore = kpiValueStore;
+    }
+
+    /**
+     * @return a new empty batch of KPIs, without the KPIs which are unchanged since their last push
+     */
+    protected KpiBatch newBatch() {
+        return new KpiBatch(analyticsApiConfig.getDataboxMaxPayloadBytes(),
+                kpiValueStore.isEnabled() ? kpiValueStore::isDue : null);
+    }
+
+    /**
+     * Pushes all the KPIs of the batch to databox.
+     * The push requests are sent asynchronously and retried on failure, a failing request does not
+     * stop the other requests from being sent.
+     * If the outbox is enabled every request is spooled before it is sent, so the requests which still
+     * fail can be resent with {@link #replayOutbox()}.
+     * @param batch KPIs to push
+     * @throws DataboxPushFailedException if any of the push requests failed after all the attempts
+     */
+    protected void push(KpiBatch batch) throws DataboxPushFailedException {
+        runMetrics.count("skipped_kpis", batch.getSkipped());
+        if (batch.getSkipped() > 0) {
+            LOG.info("Skipping {} KPIs unchanged since their last push.", batch.getSkipped());
+        }
+        if (batch.isEmpty()) {
+            LOG.info("No metrics to push to databox.");
+            return;
+        }
+        LOG.info("Pushing metrics to databox in {} request(s)", batch.getRequests());
+        runMetrics.time("databox_push", () -> {
+            DataboxPushExecutor executor = newPushExecutor();
+            batch.forEachRequest((metrics, kpis) -> {
+                Runnable markDelivered = spool(metrics, kpis);
+                executor.submit(metrics, kpis, () -> {
+                    if (markDelivered != null) {
+                        markDelivered.run();
+                    }
+                    kpiValueStore.recordPushed(kpis);
+                });
+            });
+            awaitAndCompact(executor);
+        });
+    }
+
+    /**
+     * Resends the push requests of the outbox which were not delivered yet.
+     * The requests are resent one after the other in the order they were created, with the KPIs dated when
+     * the request was created, and without the KPIs a newer delivered request already pushed.
+     * @throws DataboxPushFailedException if the outbox can not be read or any of the requests failed again
+     */
+    protected void replayOutbox() throws DataboxPushFailedException {
+        if (!outbox.isEnabled()) {
+            LOG.warn("No databox outbox configured, nothing to replay.");
+            return;
+        }
+        List<OutboxEntry> undelivered;
+        try {
+            undelivered = outbox.getReplay();
+        } catch (IOException e) {
+            throw new DataboxPushFailedException("Error reading the databox outbox. " + e.getMessage());
+        }
+        LOG.info("Replaying {} undelivered databox push request(s)", undelivered.size());
+        runMetrics.count("replayed_push_requests", undelivered.size());
+        DataboxPushExecutor executor = newPushExecutor(1);
+        for (OutboxEntry entry : undelivered) {
+            if (entry.getKpis().isEmpty()) {
+                LOG.info("Not replaying the push request of {} created {}, newer values were delivered since",
+                        entry.getMetrics(), entry.getCreated());
+                markDelivered(entry.getId());
+                continue;
+            }
+            Instant created = DataboxOutbox.getCreated(entry);
+            executor.submit(entry.getMetrics(), entry.getKpis(), Instant.EPOCH.equals(created) ? null : Date.from(created), () -> {
+                markDelivered(entry.getId());
+                kpiValueStore.recordPushed(entry.getKpis());
+            });
+        }
+        awaitAndCompact(executor);
+    }
+
+    private DataboxPushExecutor newPushExecutor() {
+        return newPushExecutor(analyticsApiConfig.getDataboxPushConcurrency());
+    }
+
+    private DataboxPushExecutor newPushExecutor(int concurrency) {
+        return new DataboxPushExecutor(databox,
+                concurrency,
+                analyticsApiConfig.getDataboxPushMaxAttempts(),
+                analyticsApiConfig.getDataboxPushInitialBackoffMillis(),
+                analyticsApiConfig.getDataboxPushMaxBackoffMillis(),
+                runMetrics);
+    }
+
+    /**
+     * Appends the push request to the outbox. A request which can not be spooled is still sent.
+     * @return marks the request as delivered, null if the request is not spooled
+     */
+    private Runnable spool(String metrics, List<DataboxKpi> kpis) {
+        if (!outbox.isEnabled()) {
+            return null;
+        }
+        try {
+            String id = outbox.append(metrics, kpis);
+            return () -> markDelivered(id);
+        } catch (IOException e) {
+            LOG.error("Error spooling the push request of {} to the databox outbox", metrics, e);
+            return null;
+        }
+    }
+
+    private void markDelivered(String id) {
+        try {
+            outbox.markDelivered(id);
+        } catch (IOException e) {
+            // the request would only be pushed once more on replay
+            LOG.error("Error marking the databox push request {} as delivered", id, e);
+        }
+    }
+
+    private void awaitAndCompact(DataboxPushExecutor executor) throws DataboxPushFailedException {
+        try {
+            executor.awaitCompletion();
+        } finally {
+            // the values of the delivered requests are kept, even if other requests failed
+            try {
+                kpiValueStore.save();
+            } catch (IOException e) {
+                LOG.warn("Error saving the KPI value store - {}", e.getMessage());
+            }
+        }
+        try {
+            outbox.compact();
+        } catch (IOException e) {
+            LOG.warn("Error compacting the databox outbox - {}", e.getMessage());
+        }
     }
 
     protected void pushElkMetrics(ELKMetric elkMetric) throws DataboxPushFailedException {
@@ -40,29 +203,31 @@ public class DataboxService {
             LOG.error("Error fetching elk statistics.");
             return;
         }
-        DataboxUtils.pushElkData(elkMetric, databox);
+        KpiBatch batch = newBatch();
+        DataboxUtils.addElkData(elkMetric, batch);
+        push(batch);
     }
 
-    protected void pushUserMetrics(UserMetric userMetric) throws DataboxPushFailedException {
+    protected void addUserMetrics(UserMetric userMetric, KpiBatch batch) throws DataboxPushFailedException {
        if (userMetric == null) {
            LOG.error("Error fetching user statistics from auth.");
            return;
        }
-       DataboxUtils.pushUserData(userMetric, databox);
+       DataboxUtils.addUserData(userMetric, batch);
     }
 
-    protected void pushEntityMetrics(EntityMetric entityMetric) throws DataboxPushFailedException {
+    protected void addEntityMetrics(EntityMetric entityMetric, KpiBatch batch) throws DataboxPushFailedException {
         if (entityMetric == null) {
             LOG.error("Error fetching entity statistics from entity api.");
             return;
         }
         // 1) push entity per type
-        DataboxUtils.pushEntityPerTypeDataToDataBox(entityMetric.getEntitiesPerType(), databox);
+        DataboxUtils.addEntityPerTypeData(entityMetric.getEntitiesPerType(), batch);
 
         // 1) push entity per lang
         int count = 0;
         for (EntitiesPerLanguage entity : entityMetric.getEntitiesPerLanguages()) {
-            DataboxUtils.pushEntityPerLanguageDataToDataBox(entity, databox);
+            DataboxUtils.addEntityPerLanguageData(entity, batch);
             count ++;
         }
         // fallback check
@@ -71,27 +236,37 @@ public class DataboxService {
         }
     }
 
-    protected void pushGalleryMetrics(SetMetric galleryMetrics) throws DataboxPushFailedException {
+    protected void addGalleryMetrics(SetMetric galleryMetrics, KpiBatch batch) throws DataboxPushFailedException {
         if (galleryMetrics == null) {
             LOG.error("Error fetching gallery statistics from set api.");
             return;
         }
-        DataboxUtils.pushCollectiveGalleryDataToDataBox(galleryMetrics, databox);
+        DataboxUtils.addCollectiveGalleryData(galleryMetrics, batch);
+    }
+
+    protected void addRollingUsageMetrics(Map<Integer, ApiKeyUsageAggregator> rollingUsage, KpiBatch batch) throws DataboxPushFailedException {
+        if (rollingUsage == null) {
+            LOG.error("Error generating the rolling usage statistics.");
+            return;
+        }
+        for (Map.Entry<Integer, ApiKeyUsageAggregator> window : rollingUsage.entrySet()) {
+            DataboxUtils.addRollingUsageData(window.getKey(), window.getValue(), batch);
+        }
     }
 
-    protected void pushSearchApiMetrics(SearchMetric searchMetric) throws DataboxPushFailedException {
+    protected void addSearchApiMetrics(SearchMetric searchMetric, KpiBatch batch) throws DataboxPushFailedException {
         if (searchMetric == null) {
             LOG.error("Error fetching search statistics from search api.");
             return;
         }
-        DataboxUtils.pushLinkedItems(searchMetric.getItemsLinkedToEntities(), databox);
-        DataboxUtils.pushHighQualityMetric(searchMetric.getAllRecords(), databox, ALL_RECORDS);
-        DataboxUtils.pushHighQualityMetric(searchMetric.getAllCompliantRecords(), databox, ALL_COMPLAINT_RECORDS);
-        DataboxUtils.pushHighQualityMetric(searchMetric.getNonCompliantRecord(), databox, NON_COMPLAINT_RECORDS);
-        DataboxUtils.pushHighQualityMetric(searchMetric.getHighQualityData(), databox, HIGH_QUALITY_DATA);
-        DataboxUtils.pushHighQualityMetric(searchMetric.getHighQualityContent(), databox, HIGH_QUALITY_CONTENT);
-        DataboxUtils.pushHighQualityMetric(searchMetric.getHighQualityReusableContent(), databox, HIGH_QUALITY_RESUABLE_CONTENT);
-        DataboxUtils.pushHighQualityMetric(searchMetric.getHighQualityMetadata(), databox, HIGH_QUALITY_METADATA);
+        DataboxUtils.addLinkedItems(searchMetric.getItemsLinkedToEntities(), batch);
+        DataboxUtils.addHighQualityMetric(searchMetric.getAllRecords(), batch, ALL_RECORDS);
+        DataboxUtils.addHighQualityMetric(searchMetric.getAllCompliantRecords(), batch, ALL_COMPLAINT_RECORDS);
+        DataboxUtils.addHighQualityMetric(searchMetric.getNonCompliantRecord(), batch, NON_COMPLAINT_RECORDS);
+        DataboxUtils.addHighQualityMetric(searchMetric.getHighQualityData(), batch, HIGH_QUALITY_DATA);
+        DataboxUtils.addHighQualityMetric(searchMetric.getHighQualityContent(), batch, HIGH_QUALITY_CONTENT);
+        DataboxUtils.addHighQualityMetric(searchMetric.getHighQualityReusableContent(), batch, HIGH_QUALITY_RESUABLE_CONTENT);
+        DataboxUtils.addHighQualityMetric(searchMetric.getHighQualityMetadata(), batch, HIGH_QUALITY_METADATA);
     }
 
 }
@@ -3,18 +3,38 @@ package eu.europeana.api.analytics.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import eu.europeana.api.analytics.exception.ApiKeyStatisticsException;
-import eu.europeana.api.commons.http.HttpConnection;
-import eu.europeana.api.commons.http.HttpResponseHandler;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import static eu.europeana.api.analytics.utils.Constants.AFTER;
+import static eu.europeana.api.analytics.utils.Constants.AGGS;
+import static eu.europeana.api.analytics.utils.Constants.APIKEYS;
+import static eu.europeana.api.analytics.utils.Constants.BOOL;
+import static eu.europeana.api.analytics.utils.Constants.COMPOSITE;
+import static eu.europeana.api.analytics.utils.Constants.DATE_FORMAT;
 import static eu.europeana.api.analytics.utils.Constants.ERROR;
+import static eu.europeana.api.analytics.utils.Constants.FIELD;
+import static eu.europeana.api.analytics.utils.Constants.FILTER;
+import static eu.europeana.api.analytics.utils.Constants.FORMAT;
+import static eu.europeana.api.analytics.utils.Constants.GTE;
+import static eu.europeana.api.analytics.utils.Constants.LT;
+import static eu.europeana.api.analytics.utils.Constants.QUERY;
+import static eu.europeana.api.analytics.utils.Constants.RANGE;
 import static eu.europeana.api.analytics.utils.Constants.REASON;
 import static eu.europeana.api.analytics.utils.Constants.ROOT_CAUSE;
+import static eu.europeana.api.analytics.utils.Constants.SIZE;
+import static eu.europeana.api.analytics.utils.Constants.SOURCES;
+import static eu.europeana.api.analytics.utils.Constants.TERMS;
+import static eu.europeana.api.analytics.utils.Constants.TIMESTAMP;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Map;
 
 /**
  *  class to connect to Elastic serach
@@ -24,7 +44,7 @@ public class ElasticSearchConnection {
 
     private static final Logger LOG = LogManager.getLogger(ElasticSearchConnection.class);
 
-    protected final HttpConnection esClient;
+    protected final StreamingHttpConnection esClient;
     private   final String         esUrl;
     private   final String         requestBody;
     private   final ObjectMapper   mapper;
@@ -34,40 +54,114 @@ public class ElasticSearchConnection {
      * @param esUrl url for the Elastic search endpoint
      * @param requestBody request body
      * @param mapper mapper to read the response
+     * @param esClient connection to execute the requests
      */
-    public ElasticSearchConnection(String esUrl, String requestBody, ObjectMapper mapper) {
+    public ElasticSearchConnection(String esUrl, String requestBody, ObjectMapper mapper, StreamingHttpConnection esClient) {
         this.esUrl       = esUrl;
         this.requestBody = requestBody;
-        this.esClient    = new HttpConnection(true);
+        this.esClient    = esClient;
         this.mapper      =  mapper   ;
     }
 
-    public String getApiKeyData() throws ApiKeyStatisticsException {
+    /**
+     * Fetches the apikey statistics for the given days.
+     * The @timestamp range filter of the configured request body is replaced by the given range.
+     * @param from first day (inclusive), null to keep the configured range
+     * @param to last day (exclusive), null to keep the configured range
+     * @param reader reads the response as it is received
+     * @return the value returned by the reader
+     * @throws ApiKeyStatisticsException if the request fails or the response can not be read
+     */
+    public <T> T getApiKeyData(LocalDate from, LocalDate to, ResponseBodyReader<T> reader) throws ApiKeyStatisticsException {
+        return post(from == null ? requestBody : buildRequestBody(0, null, from, to), reader);
+    }
+
+    /**
+     * Fetches a page of the apikey statistics.
+     * The terms aggregation of the configured request body is replaced by a composite aggregation
+     * on the same field, with the same sub aggregations.
+     * @param pageSize number of apikeys per page
+     * @param afterKey after key returned with the previous page, null for the first page
+     * @param from first day (inclusive), null to keep the configured range
+     * @param to last day (exclusive), null to keep the configured range
+     * @param reader reads the response as it is received
+     * @return the value returned by the reader
+     * @throws ApiKeyStatisticsException if the request fails or the response can not be read
+     */
+    public <T> T getApiKeyDataPage(int pageSize, Map<String, String> afterKey, LocalDate from, LocalDate to,
+                                   ResponseBodyReader<T> reader) throws ApiKeyStatisticsException {
+        return post(buildRequestBody(pageSize, afterKey, from, to), reader);
+    }
+
+    private <T> T post(String body, ResponseBodyReader<T> reader) throws ApiKeyStatisticsException {
         try  {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Requesting Elastic Search - {} with body {}", esUrl, requestBody);
-            }
-            HttpResponseHandler rsp = esClient.post(esUrl, requestBody, "application/json", null);
-            int responseCode = rsp.getStatus();
-            if (responseCode == HttpStatus.SC_OK) {
-                return rsp.getResponse();
-            } else {
-                String message = extractErrorMessage(rsp.getResponse());
-                LOG.error("Error retrieving data from Elastic search : url-{}, code-{}, reason-{}",
-                        this.esUrl, responseCode, message );
-                return null;
+                LOG.debug("Requesting Elastic Search - {} with body {}", esUrl, body);
             }
+            return esClient.post(esUrl, body, "application/json", null, (responseCode, response) -> {
+                if (responseCode != HttpStatus.SC_OK) {
+                    String message = extractErrorMessage(response);
+                    LOG.error("Error retrieving data from Elastic search : url-{}, code-{}, reason-{}",
+                            this.esUrl, responseCode, message);
+                    throw new IOException("code-" + responseCode + ", reason-" + message);
+                }
+                return reader.read(response);
+            });
         } catch (IOException e) {
             throw new ApiKeyStatisticsException("Error while getting response from Elastic search url - " + esUrl + " " + e.getMessage(), e);
         }
     }
 
+    private String buildRequestBody(int pageSize, Map<String, String> afterKey, LocalDate from, LocalDate to) throws ApiKeyStatisticsException {
+        try {
+            JsonNode body = mapper.readTree(requestBody);
+            if (from != null && to != null) {
+                setTimestampRange(body, from, to);
+            }
+            if (pageSize > 0) {
+                setCompositeAggregation(body, pageSize, afterKey);
+            }
+            return mapper.writeValueAsString(body);
+        } catch (JsonProcessingException e) {
+            throw new ApiKeyStatisticsException("Error building the Elastic search request - " + e.getMessage(), e);
+        }
+    }
+
+    private void setTimestampRange(JsonNode body, LocalDate from, LocalDate to) throws ApiKeyStatisticsException {
+        JsonNode rangeNode = body.path(QUERY).path(BOOL).path(FILTER).path(RANGE);
+        if (!rangeNode.isObject() || !rangeNode.has(TIMESTAMP)) {
+            throw new ApiKeyStatisticsException("Elastic search request body has no '" + TIMESTAMP + "' range filter");
+        }
+        ((ObjectNode) rangeNode).putObject(TIMESTAMP)
+                .put(GTE, from.toString())
+                .put(LT, to.toString())
+                .put(FORMAT, DATE_FORMAT);
+    }
+
+    private void setCompositeAggregation(JsonNode body, int pageSize, Map<String, String> afterKey) throws ApiKeyStatisticsException {
+        JsonNode apikeysNode = body.path(AGGS).path(APIKEYS);
+        if (!apikeysNode.isObject() || !apikeysNode.has(TERMS)) {
+            throw new ApiKeyStatisticsException("Elastic search request body has no '" + APIKEYS + "' terms aggregation");
+        }
+        ObjectNode apikeysAgg = (ObjectNode) apikeysNode;
+        String field = apikeysAgg.remove(TERMS).path(FIELD).asText();
+
+        ObjectNode composite = apikeysAgg.putObject(COMPOSITE);
+        composite.put(SIZE, pageSize);
+        composite.putArray(SOURCES).addObject().putObject(field).putObject(TERMS).put(FIELD, field);
+        if (afterKey != null) {
+            ObjectNode after = composite.putObject(AFTER);
+            afterKey.forEach(after::put);
+        }
+    }
+
     /**
      * Will extract the error response reason phrase from elastic search error response
-     * @param json error response
+     * @param response error response
      * @return error message
      */
-    private String extractErrorMessage(String json) {
+    private String extractErrorMessage(InputStream response) throws IOException {
+        String json = new String(response.readAllBytes(), StandardCharsets.UTF_8);
         try {
             JsonNode node = mapper.readTree(json);
             if (node.has(ERROR)) {
@@ -102,4 +196,12 @@ public class ElasticSearchConnection {
            LOG.error("Error closing the Elastic search client connection");
         }
     }
+
+    /**
+     * Reads the body of a successful response
+     */
+    @FunctionalInterface
+    public interface ResponseBodyReader<T> {
+        T read(InputStream response) throws IOException;
+    }
 }
@@ -0,0 +1,160 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import eu.europeana.api.analytics.model.DataboxKpi;
+import eu.europeana.api.analytics.utils.AtomicFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the last value pushed to databox for every KPI series (key and attributes) in a local file.
+ * A KPI is only due when its value changed since the last push or when the last push is older than the
+ * heartbeat interval, so the values which rarely change are not pushed every day.
+ * The store is disabled when no file is configured, then every KPI is due.
+ */
+public class KpiValueStore {
+
+    private static final Logger LOG = LogManager.getLogger(KpiValueStore.class);
+
+    private static final String VALUE  = "value";
+    private static final String PUSHED = "pushed";
+
+    private final Path         file;
+    private final ObjectMapper mapper;
+    private final Duration     heartbeat;
+
+    private Map<String, PushedValue> values;
+    private boolean modified;
+
+    /**
+     * Constructor
+     * @param file file of the store, null to disable the store
+     * @param mapper mapper to read and write the store
+     * @param heartbeat unchanged KPIs are pushed again when their last push is older than this
+     */
+    public KpiValueStore(File file, ObjectMapper mapper, Duration heartbeat) {
+        this.file      = (file == null ? null : file.toPath());
+        this.mapper    = mapper;
+        this.heartbeat = heartbeat;
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * Checks if the KPI needs to be pushed
+     * @param kpi KPI to check
+     * @return true if the value changed since the last push or the heartbeat interval passed
+     */
+    public synchronized boolean isDue(DataboxKpi kpi) {
+        if (!isEnabled()) {
+            return true;
+        }
+        PushedValue last = getValues().get(kpi.getSeriesKey());
+        return last == null
+                || !last.value.equals(normalize(kpi.getValue()))
+                || last.pushed.plus(heartbeat).isBefore(Instant.now());
+    }
+
+    /**
+     * Records the values of the KPIs as pushed now
+     * @param kpis KPIs pushed to databox
+     */
+    public synchronized void recordPushed(List<DataboxKpi> kpis) {
+        if (!isEnabled()) {
+            return;
+        }
+        Instant now = Instant.now();
+        for (DataboxKpi kpi : kpis) {
+            getValues().put(kpi.getSeriesKey(), new PushedValue(normalize(kpi.getValue()), now));
+        }
+        modified = true;
+    }
+
+    /**
+     * Writes the store to its file, if any values were recorded
+     * @throws IOException if the file can not be written
+     */
+    public synchronized void save() throws IOException {
+        if (!isEnabled() || !modified) {
+            return;
+        }
+        ObjectNode root = mapper.createObjectNode();
+        for (Map.Entry<String, PushedValue> entry : values.entrySet()) {
+            root.putObject(entry.getKey())
+                    .put(VALUE, entry.getValue().value)
+                    .put(PUSHED, entry.getValue().pushed.toString());
+        }
+        // replace the file at once, so an interrupted write does not lose the store
+        AtomicFiles.write(file, tmp -> mapper.writeValue(tmp.toFile(), root));
+        modified = false;
+    }
+
+    private Map<String, PushedValue> getValues() {
+        if (values == null) {
+            values = load();
+        }
+        return values;
+    }
+
+    private Map<String, PushedValue> load() {
+        Map<String, PushedValue> loaded = new HashMap<>();
+        if (!Files.exists(file)) {
+            return loaded;
+        }
+        try {
+            JsonNode root = mapper.readTree(file.toFile());
+            Iterator<Map.Entry<String, JsonNode>> fields = root.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                loaded.put(field.getKey(), new PushedValue(field.getValue().path(VALUE).asText(),
+                        Instant.parse(field.getValue().path(PUSHED).asText())));
+            }
+        } catch (IOException | RuntimeException e) {
+            // all the KPIs are pushed again and the store is rebuilt
+            LOG.warn("Error reading the KPI value store {}, ignoring it - {}", file, e.getMessage());
+            loaded.clear();
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the value as plain string, so 4, 4.0 and 4.00 are the same value
+     */
+    private static String normalize(Number value) {
+        if (value == null) {
+            return "null";
+        }
+        try {
+            return new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+        } catch (NumberFormatException e) {
+            // NaN and Infinity
+            return value.toString();
+        }
+    }
+
+    private static final class PushedValue {
+        private final String  value;
+        private final Instant pushed;
+
+        private PushedValue(String value, Instant pushed) {
+            this.value  = value;
+            this.pushed = pushed;
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import eu.europeana.api.analytics.utils.AtomicFiles;
+import eu.europeana.api.commons.auth.AuthenticationHandler;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.util.DigestUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local cache of the upstream statistics responses, keyed by url.
+ * The ETag and Last-Modified values of a response are stored with its body, the next request for the url is
+ * sent with If-None-Match and If-Modified-Since and a 304 (Not Modified) response reuses the cached metric
+ * instead of downloading and deserializing it again. The cache is disabled when no directory is configured.
+ */
+public class ResponseCache {
+
+    private static final Logger LOG = LogManager.getLogger(ResponseCache.class);
+
+    private static final String JSON          = "application/json";
+    private static final String URL           = "url";
+    private static final String ETAG          = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private final Path         directory;
+    private final ObjectMapper mapper;
+
+    // metrics deserialized in this run, reused as long as the server reports them unchanged
+    private final Map<String, CachedMetric> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param directory directory of the cached responses, null to disable the cache
+     * @param mapper mapper to read and write the cache metadata
+     */
+    public ResponseCache(File directory, ObjectMapper mapper) {
+        this.directory = (directory == null ? null : directory.toPath());
+        this.mapper    = mapper;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * Fetches the json response of the url, or takes it from the cache if the server reports it as not modified
+     * @param connection connection to execute the request
+     * @param url url
+     * @param auth authentication for the url, can be null
+     * @param reader reads the metric from the response body
+     * @return the metric, null if the response status is neither 200 nor 304
+     * @throws IOException if the request fails or the response can not be read
+     */
+    public <T> T get(StreamingHttpConnection connection, String url, AuthenticationHandler auth,
+                     BodyReader<T> reader) throws IOException {
+        return getResponse(connection, url, auth, reader).getMetric();
+    }
+
+    /**
+     * Fetches the json response of the url, or takes it from the cache if the server reports it as not modified
+     * @param connection connection to execute the request
+     * @param url url
+     * @param auth authentication for the url, can be null
+     * @param reader reads the metric from the response body
+     * @return the http status of the response with the metric, null if the status is neither 200 nor 304
+     * @throws IOException if the request fails or the response can not be read
+     */
+    public <T> Response<T> getResponse(StreamingHttpConnection connection, String url, AuthenticationHandler auth,
+                                       BodyReader<T> reader) throws IOException {
+        if (!isEnabled()) {
+            return connection.get(url, JSON, auth, (status, body) ->
+                    new Response<>(status, status == HttpStatus.SC_OK ? reader.read(body) : null));
+        }
+        String name = DigestUtils.md5DigestAsHex(url.getBytes(StandardCharsets.UTF_8));
+        Path bodyFile = directory.resolve(name + ".json");
+        Path metaFile = directory.resolve(name + ".meta.json");
+        Validators validators = (Files.exists(bodyFile) ? readValidators(metaFile, url) : null);
+
+        Map<String, String> headers = new HashMap<>();
+        if (validators != null && validators.etag != null) {
+            headers.put(HttpHeaders.IF_NONE_MATCH, validators.etag);
+        }
+        if (validators != null && validators.lastModified != null) {
+            headers.put(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified);
+        }
+        return connection.get(url, JSON, headers, auth, (status, responseHeaders, body) -> {
+            if (status == HttpStatus.SC_NOT_MODIFIED && validators != null) {
+                LOG.info("Statistics of {} not modified, using the cached response", url);
+                return new Response<>(status, readCached(url, bodyFile, validators, reader));
+            }
+            if (status != HttpStatus.SC_OK) {
+                return new Response<>(status, null);
+            }
+            Validators received = new Validators(responseHeaders.apply(HttpHeaders.ETAG),
+                    responseHeaders.apply(HttpHeaders.LAST_MODIFIED));
+            if (received.etag == null && received.lastModified == null) {
+                // the response can not be revalidated, no need to keep it
+                return new Response<>(status, reader.read(body));
+            }
+            return new Response<>(status, store(url, body, bodyFile, metaFile, received, reader));
+        });
+    }
+
+    /**
+     * Reads the metric from the response body while copying the body to the cache. Failing to cache the
+     * response (ex: disk full) does not fail the request: the metric is still returned and the cached
+     * response of the url, which is outdated by now, is removed.
+     */
+    private <T> T store(String url, InputStream body, Path bodyFile, Path metaFile, Validators validators,
+                        BodyReader<T> reader) throws IOException {
+        BodyCopy copy = new BodyCopy(body, bodyFile);
+        try {
+            // a response which can not be read fails the request and leaves the cached one untouched
+            T metric = reader.read(copy);
+            try {
+                Path copied = copy.finish();
+                // a body without metadata is never used, so a failure in between leaves no stale entry
+                Files.deleteIfExists(metaFile);
+                AtomicFiles.replace(copied, bodyFile);
+                writeValidators(metaFile, url, validators);
+                metrics.put(url, new CachedMetric(validators, metric));
+            } catch (IOException e) {
+                LOG.warn("Error caching the response of {} - {}", url, e.getMessage());
+                remove(url, bodyFile, metaFile);
+            }
+            return metric;
+        } finally {
+            copy.discard();
+        }
+    }
+
+    private void remove(String url, Path bodyFile, Path metaFile) {
+        metrics.remove(url);
+        try {
+            Files.deleteIfExists(metaFile);
+            Files.deleteIfExists(bodyFile);
+        } catch (IOException e) {
+            LOG.warn("Error removing the cached response of {} - {}", url, e.getMessage());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T readCached(String url, Path bodyFile, Validators validators, BodyReader<T> reader) throws IOException {
+        CachedMetric cached = metrics.get(url);
+        if (cached != null && cached.validators.equals(validators)) {
+            return (T) cached.metric;
+        }
+        T metric = readFile(bodyFile, reader);
+        metrics.put(url, new CachedMetric(validators, metric));
+        return metric;
+    }
+
+    private static <T> T readFile(Path file, BodyReader<T> reader) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return reader.read(in);
+        }
+    }
+
+    private Validators readValidators(Path metaFile, String url) {
+        if (!Files.exists(metaFile)) {
+            return null;
+        }
+        try {
+            JsonNode meta = mapper.readTree(metaFile.toFile());
+            // a hash collision must never hand over the response of another url
+            if (!url.equals(meta.path(URL).asText())) {
+                return null;
+            }
+            Validators validators = new Validators(meta.path(ETAG).textValue(), meta.path(LAST_MODIFIED).textValue());
+            return (validators.etag == null && validators.lastModified == null) ? null : validators;
+        } catch (IOException e) {
+            LOG.warn("Error reading the cached response metadata {} - {}", metaFile, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeValidators(Path metaFile, String url, Validators validators) throws IOException {
+        ObjectNode meta = mapper.createObjectNode();
+        meta.put(URL, url);
+        meta.put(ETAG, validators.etag);
+        meta.put(LAST_MODIFIED, validators.lastModified);
+        AtomicFiles.write(metaFile, tmp -> mapper.writeValue(tmp.toFile(), meta));
+    }
+
+    /**
+     * Reads a metric from a json response body
+     */
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    /**
+     * Http status of a response with the metric read from it
+     */
+    public static final class Response<T> {
+        private final int status;
+        private final T   metric;
+
+        private Response(int status, T metric) {
+            this.status = status;
+            this.metric = metric;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public T getMetric() {
+            return metric;
+        }
+    }
+
+    private static final class Validators {
+        private final String etag;
+        private final String lastModified;
+
+        private Validators(String etag, String lastModified) {
+            this.etag         = etag;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Validators that = (Validators) o;
+            return Objects.equals(etag, that.etag) && Objects.equals(lastModified, that.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(etag, lastModified);
+        }
+    }
+
+    /**
+     * Copies the response body to a temporary file next to the cached body while it is read. A failure of the
+     * copy does not interrupt the reading, it is reported by {@link #finish()}. Closing the stream (ex: by the
+     * reader once it is done) does not close the body, the body is closed by the connection.
+     */
+    private static final class BodyCopy extends FilterInputStream {
+        private Path         tmp;
+        private OutputStream copy;
+        private IOException  failure;
+
+        private BodyCopy(InputStream body, Path bodyFile) {
+            super(body);
+            try {
+                tmp  = AtomicFiles.createTempFile(bodyFile);
+                copy = new BufferedOutputStream(Files.newOutputStream(tmp));
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                write(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes must be copied too
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            int read;
+            while (skipped < n && (read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length))) > 0) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void write(byte[] b, int off, int len) {
+            if (failure != null) {
+                return;
+            }
+            try {
+                copy.write(b, off, len);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Copies the rest of the body, which the reader may not have read
+         * @return the complete copy of the body
+         * @throws IOException if the body could not be read or copied
+         */
+        private Path finish() throws IOException {
+            transferTo(OutputStream.nullOutputStream());
+            if (failure == null) {
+                try {
+                    copy.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return tmp;
+        }
+
+        @Override
+        public void close() {
+            // the rest of the body is still copied by finish()
+        }
+
+        /**
+         * Removes the copy, unless it was moved to the cache
+         * @throws IOException if the copy could not be removed
+         */
+        private void discard() throws IOException {
+            try {
+                if (copy != null) {
+                    copy.close();
+                }
+            } catch (IOException e) {
+                // the copy is removed anyway
+            } finally {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        }
+    }
+
+    private static final class CachedMetric {
+        private final Validators validators;
+        private final Object     metric;
+
+        private CachedMetric(Validators validators, Object metric) {
+            this.validators = validators;
+            this.metric     = metric;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.utils.AtomicFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Total calls and active days per apikey over the last <code>days</code> days.
+ * The window is moved forward by adding the newest days and subtracting the days which fall out of it,
+ * both read from the {@link ApiKeyUsageStore}, so a daily run only reads two days of the store instead of
+ * the whole window. The state of the window is kept in a file between the runs, the window is rebuilt
+ * from the store when the state is missing, too old to be moved forward or when a day it already passed
+ * was stored afterwards.
+ */
+public class RollingUsageWindow {
+
+    private static final Logger LOG = LogManager.getLogger(RollingUsageWindow.class);
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final int days;
+    private final int callsPerDay;
+    private final Path stateFile;
+
+    // apikey -> {total calls, active days}
+    private final Map<String, int[]> usage = new HashMap<>();
+    // days of the window found in the store
+    private final Set<LocalDate> included = new TreeSet<>();
+    private LocalDate end;
+
+    /**
+     * Constructor
+     * @param days length of the window in days
+     * @param callsPerDay minimum number of calls for a day to count as an active day
+     * @param stateFile file keeping the state of the window between the runs
+     */
+    public RollingUsageWindow(int days, int callsPerDay, Path stateFile) {
+        this.days        = days;
+        this.callsPerDay = callsPerDay;
+        this.stateFile   = stateFile;
+    }
+
+    /**
+     * Moves the window so that it ends with the day before <code>newEnd</code> and saves its state
+     * @param store store of the daily apikey usage
+     * @param newEnd first day after the window (exclusive)
+     * @throws IOException if the store or the state of the window could not be read or written
+     */
+    public void moveTo(ApiKeyUsageStore store, LocalDate newEnd) throws IOException {
+        load();
+        if (end == null || newEnd.isBefore(end) || ChronoUnit.DAYS.between(end, newEnd) >= days
+                || hasLateDays(store, newEnd)) {
+            LOG.info("Rebuilding the {} days usage window ending {}", days, newEnd);
+            usage.clear();
+            included.clear();
+            for (LocalDate day = newEnd.minusDays(days); day.isBefore(newEnd); day = day.plusDays(1)) {
+                addDay(store, day);
+            }
+        } else {
+            for (LocalDate day = end; day.isBefore(newEnd); day = day.plusDays(1)) {
+                addDay(store, day);
+                LocalDate oldest = day.minusDays(days);
+                if (included.remove(oldest)) {
+                    store.readDays(oldest, oldest.plusDays(1), (apikey, dates, counts) -> add(apikey, counts[0], -1));
+                }
+            }
+            usage.values().removeIf(calls -> calls[0] <= 0);
+        }
+        end = newEnd;
+        save();
+    }
+
+    /**
+     * Aggregates the usage of the window the same way as the monthly statistics, with the same thresholds,
+     * so the figures of the windows and of the month can be compared
+     * @param registry client type per registered apikey
+     * @param activeDays minimum active days for a regular client
+     * @return the aggregated usage of the window
+     */
+    public ApiKeyUsageAggregator aggregate(ClientRegistry registry, int activeDays) {
+        ApiKeyUsageAggregator aggregator = new ApiKeyUsageAggregator(registry, days, callsPerDay, activeDays);
+        for (Map.Entry<String, int[]> entry : usage.entrySet()) {
+            aggregator.add(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+        return aggregator;
+    }
+
+    /**
+     * @return total calls and active days per apikey of the window
+     */
+    Map<String, int[]> getUsage() {
+        return Collections.unmodifiableMap(usage);
+    }
+
+    private void addDay(ApiKeyUsageStore store, LocalDate day) throws IOException {
+        if (store.readDays(day, day.plusDays(1), (apikey, dates, counts) -> add(apikey, counts[0], 1)) > 0) {
+            included.add(day);
+        }
+    }
+
+    /**
+     * @return true if a day of the current window was stored after the window passed it (e.g. caught up later)
+     */
+    private boolean hasLateDays(ApiKeyUsageStore store, LocalDate newEnd) {
+        for (LocalDate day = newEnd.minusDays(days); day.isBefore(end); day = day.plusDays(1)) {
+            if (!included.contains(day) && store.hasDay(day)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(String apikey, int count, int sign) {
+        int[] calls = usage.computeIfAbsent(apikey, key -> new int[2]);
+        calls[0] += sign * count;
+        calls[1] += (count >= callsPerDay ? sign : 0);
+    }
+
+    private void load() {
+        if (end != null || !Files.exists(stateFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (in.readInt() != FORMAT_VERSION || in.readInt() != days) {
+                LOG.warn("Ignoring the incompatible usage window state {}", stateFile);
+                return;
+            }
+            LocalDate stateEnd = LocalDate.ofEpochDay(in.readLong());
+            int includedDays = in.readInt();
+            for (int i = 0; i < includedDays; i++) {
+                included.add(LocalDate.ofEpochDay(in.readLong()));
+            }
+            int apikeys = in.readInt();
+            for (int i = 0; i < apikeys; i++) {
+                usage.put(in.readUTF(), new int[] { in.readInt(), in.readInt() });
+            }
+            end = stateEnd;
+        } catch (IOException e) {
+            // the window is rebuilt from the store
+            LOG.warn("Error reading the usage window state {} - {}", stateFile, e.getMessage());
+            usage.clear();
+            included.clear();
+        }
+    }
+
+    private void save() throws IOException {
+        AtomicFiles.write(stateFile, tmp -> {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(days);
+                out.writeLong(end.toEpochDay());
+                out.writeInt(included.size());
+                for (LocalDate day : included) {
+                    out.writeLong(day.toEpochDay());
+                }
+                out.writeInt(usage.size());
+                for (Map.Entry<String, int[]> entry : usage.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue()[0]);
+                    out.writeInt(entry.getValue()[1]);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,329 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import eu.europeana.api.analytics.jfr.PhaseEvent;
+import eu.europeana.api.analytics.utils.AtomicFiles;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Timers and counters of a single run of the generator.
+ * As the generator is a batch job the metrics are not scraped, they are written at the end of the run as a
+ * Prometheus textfile (for the node exporter textfile collector) and as a json summary. All the metrics are
+ * gauges holding the values of the last run. Nothing is written when no file is configured.
+ * The timed phases are also recorded as {@link PhaseEvent} when a flight recording is running.
+ */
+public class RunMetrics {
+
+    private static final Logger LOG = LogManager.getLogger(RunMetrics.class);
+
+    private static final String PREFIX = "europeana_analytics_";
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    /**
+     * Metrics of a run, with their label names
+     */
+    public enum Metric {
+        RUN_SUCCESS("run_success", "1 if the last run completed successfully, 0 otherwise"),
+        RUN_DURATION_SECONDS("run_duration_seconds", "Duration of the last run"),
+        RUN_TIMESTAMP_SECONDS("run_last_timestamp_seconds", "End of the last run, seconds since the epoch"),
+        PHASE_DURATION_SECONDS("phase_duration_seconds", "Duration of a phase of the last run", "phase"),
+        ITEMS("items", "Items processed in the last run, ex: apikeys or days", "item"),
+        HTTP_REQUEST_DURATION_SECONDS("http_request_duration_seconds",
+                "Time spent on the requests to an endpoint, including the streamed parsing of the responses", "endpoint"),
+        HTTP_RESPONSE_BYTES("http_response_bytes", "Bytes received from an endpoint, after decompression", "endpoint"),
+        HTTP_REQUESTS("http_requests", "Requests sent to an endpoint, status 0 if no response was received", "endpoint", "status"),
+        DATABOX_PUSH_DURATION_SECONDS("databox_push_duration_seconds", "Time spent on the databox push requests, including retries", "result"),
+        DATABOX_PUSH_REQUESTS("databox_push_requests", "Databox push requests", "result"),
+        DATABOX_PUSH_KPIS("databox_push_kpis", "KPIs in the databox push requests", "result"),
+        DATABOX_PUSH_ATTEMPTS("databox_push_attempts", "Attempts of the databox push requests");
+
+        private final String   name;
+        private final String   help;
+        private final String[] labels;
+
+        Metric(String name, String help, String... labels) {
+            this.name   = PREFIX + name;
+            this.help   = help;
+            this.labels = labels;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    private final Path textFile;
+    private final Path summaryFile;
+    private final ObjectMapper mapper;
+
+    private final Map<Metric, Map<List<String>, DoubleAdder>> values = new EnumMap<>(Metric.class);
+    private volatile long    startNanos = System.nanoTime();
+    private volatile Instant start      = Instant.now();
+    private volatile String  mode;
+
+    /**
+     * Constructor
+     * @param textFile Prometheus textfile (*.prom), null to not write it
+     * @param summaryFile json summary, null to not write it
+     * @param mapper mapper to write the json summary
+     */
+    public RunMetrics(File textFile, File summaryFile, ObjectMapper mapper) {
+        this.textFile    = (textFile == null ? null : textFile.toPath());
+        this.summaryFile = (summaryFile == null ? null : summaryFile.toPath());
+        this.mapper      = mapper;
+        for (Metric metric : Metric.values()) {
+            values.put(metric, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Starts the run, discarding the metrics of the previous run
+     * @param mode what the run executes, ex: daily or replay
+     */
+    public void start(String mode) {
+        for (Map<List<String>, DoubleAdder> samples : values.values()) {
+            samples.clear();
+        }
+        this.mode       = mode;
+        this.start      = Instant.now();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Adds to a metric
+     * @param metric metric
+     * @param value value to add
+     * @param labels values of the labels of the metric, in the order of their names
+     */
+    public void add(Metric metric, double value, String... labels) {
+        if (labels.length != metric.labels.length) {
+            throw new IllegalArgumentException(metric.name + " expects the labels " + Arrays.toString(metric.labels));
+        }
+        values.get(metric).computeIfAbsent(List.of(labels), key -> new DoubleAdder()).add(value);
+    }
+
+    /**
+     * Adds an elapsed time to a metric
+     * @param metric metric in seconds
+     * @param startNanos start of the elapsed time, from {@link System#nanoTime()}
+     * @param labels values of the labels of the metric
+     */
+    public void addElapsed(Metric metric, long startNanos, String... labels) {
+        add(metric, (System.nanoTime() - startNanos) / NANOS_PER_SECOND, labels);
+    }
+
+    /**
+     * Counts processed items
+     * @param item name of the items
+     * @param count number of items
+     */
+    public void count(String item, long count) {
+        add(Metric.ITEMS, count, item);
+    }
+
+    /**
+     * Times a phase of the run
+     * @param phase name of the phase
+     * @param task the phase
+     * @throws E exception of the phase, the time is recorded anyway
+     */
+    public <E extends Exception> void time(String phase, Task<E> task) throws E {
+        timeCall(phase, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Times a phase of the run which returns a value
+     * @param phase name of the phase
+     * @param call the phase
+     * @return the value returned by the phase
+     * @throws E exception of the phase, the time is recorded anyway
+     */
+    public <T, E extends Exception> T timeCall(String phase, Call<T, E> call) throws E {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        long phaseStart = System.nanoTime();
+        boolean failed = true;
+        try {
+            T value = call.call();
+            failed = false;
+            return value;
+        } finally {
+            addElapsed(Metric.PHASE_DURATION_SECONDS, phaseStart, phase);
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase  = phase;
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @return listener recording the http requests per endpoint (host and path of the url)
+     */
+    public StreamingHttpConnection.RequestListener getHttpListener() {
+        return (method, url, status, bytes, durationNanos) -> {
+            String endpoint = getEndpoint(url);
+            add(Metric.HTTP_REQUESTS, 1, endpoint, String.valueOf(status));
+            add(Metric.HTTP_REQUEST_DURATION_SECONDS, durationNanos / NANOS_PER_SECOND, endpoint);
+            add(Metric.HTTP_RESPONSE_BYTES, bytes, endpoint);
+        };
+    }
+
+    /**
+     * Ends the run and writes the configured metric files.
+     * Errors writing the files are only logged, they never fail the run.
+     * @param success true if the run completed successfully
+     */
+    public void finish(boolean success) {
+        values.get(Metric.RUN_SUCCESS).clear();
+        values.get(Metric.RUN_DURATION_SECONDS).clear();
+        values.get(Metric.RUN_TIMESTAMP_SECONDS).clear();
+        addElapsed(Metric.RUN_DURATION_SECONDS, startNanos);
+        add(Metric.RUN_SUCCESS, success ? 1 : 0);
+        add(Metric.RUN_TIMESTAMP_SECONDS, Instant.now().getEpochSecond());
+        try {
+            if (textFile != null) {
+                writeAtomically(textFile, this::writeTextFile);
+                LOG.info("Run metrics written to {}", textFile);
+            }
+            if (summaryFile != null) {
+                writeAtomically(summaryFile, out -> mapper.writerWithDefaultPrettyPrinter().writeValue(out, toSummary(success)));
+                LOG.info("Run summary written to {}", summaryFile);
+            }
+        } catch (IOException e) {
+            LOG.warn("Error writing the run metrics - {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format
+     * @param out target
+     * @throws IOException if the metrics could not be written
+     */
+    void writeTextFile(Writer out) throws IOException {
+        for (Metric metric : Metric.values()) {
+            List<Map.Entry<List<String>, DoubleAdder>> samples = getSamples(metric);
+            if (samples.isEmpty()) {
+                continue;
+            }
+            out.write("# HELP " + metric.name + " " + metric.help + "\n");
+            out.write("# TYPE " + metric.name + " gauge\n");
+            for (Map.Entry<List<String>, DoubleAdder> sample : samples) {
+                out.write(metric.name);
+                if (metric.labels.length > 0) {
+                    out.write('{');
+                    for (int i = 0; i < metric.labels.length; i++) {
+                        out.write((i > 0 ? "," : "") + metric.labels[i] + "=\"" + escape(sample.getKey().get(i)) + "\"");
+                    }
+                    out.write('}');
+                }
+                out.write(" " + format(sample.getValue().sum()) + "\n");
+            }
+        }
+    }
+
+    private ObjectNode toSummary(boolean success) {
+        ObjectNode summary = mapper.createObjectNode();
+        summary.put("mode", mode);
+        summary.put("start", start.toString());
+        summary.put("success", success);
+        ObjectNode metrics = summary.putObject("metrics");
+        for (Metric metric : Metric.values()) {
+            List<Map.Entry<List<String>, DoubleAdder>> samples = getSamples(metric);
+            if (samples.isEmpty()) {
+                continue;
+            }
+            if (metric.labels.length == 0) {
+                metrics.put(metric.name, samples.get(0).getValue().sum());
+                continue;
+            }
+            ArrayNode array = metrics.putArray(metric.name);
+            for (Map.Entry<List<String>, DoubleAdder> sample : samples) {
+                ObjectNode node = array.addObject();
+                for (int i = 0; i < metric.labels.length; i++) {
+                    node.put(metric.labels[i], sample.getKey().get(i));
+                }
+                node.put("value", sample.getValue().sum());
+            }
+        }
+        return summary;
+    }
+
+    private List<Map.Entry<List<String>, DoubleAdder>> getSamples(Metric metric) {
+        List<Map.Entry<List<String>, DoubleAdder>> samples = new ArrayList<>(values.get(metric).entrySet());
+        samples.sort(Map.Entry.comparingByKey((a, b) -> String.join("\u0000", a).compareTo(String.join("\u0000", b))));
+        return samples;
+    }
+
+    /**
+     * The textfile collector may read the file at any time, so the file is replaced at once
+     */
+    private static void writeAtomically(Path file, WriterTask task) throws IOException {
+        AtomicFiles.write(file, tmp -> {
+            try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                task.write(out);
+            }
+        });
+    }
+
+    private static String getEndpoint(String url) {
+        try {
+            URI uri = URI.create(url);
+            return uri.getHost() + (uri.getPath() == null ? "" : uri.getPath());
+        } catch (IllegalArgumentException e) {
+            return "unknown";
+        }
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Timed phase
+     */
+    @FunctionalInterface
+    public interface Task<E extends Exception> {
+        void run() throws E;
+    }
+
+    /**
+     * Timed phase returning a value
+     */
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    @FunctionalInterface
+    private interface WriterTask {
+        void write(Writer out) throws IOException;
+    }
+}
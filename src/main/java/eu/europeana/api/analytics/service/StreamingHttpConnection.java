@@ -0,0 +1,261 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.jfr.HttpRequestEvent;
+import eu.europeana.api.commons.auth.AuthenticationHandler;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * Http connection which hands over the response body as a stream, so the responses can be parsed
+ * straight from the socket instead of being read into a String first.
+ * Compressed (gzip) responses are requested and transparently decompressed.
+ * An optional {@link RequestListener} is notified of every request once its response has been read, and
+ * every request is recorded as {@link HttpRequestEvent} when a flight recording is running.
+ * One (pooled) http client can be shared by several endpoints with {@link #withReadTimeout(Duration)},
+ * the client is only closed by the connection it was given to.
+ */
+public class StreamingHttpConnection implements Closeable {
+
+    private static final String GZIP = "gzip";
+
+    private final CloseableHttpClient httpClient;
+    private final RequestListener     listener;
+    private final RequestConfig       requestConfig;
+    private final boolean             ownsClient;
+
+    /**
+     * Constructor
+     * @param httpClient http client to execute the requests
+     * @param listener notified of every request, can be null
+     */
+    public StreamingHttpConnection(CloseableHttpClient httpClient, RequestListener listener) {
+        this(httpClient, listener, null, true);
+    }
+
+    private StreamingHttpConnection(CloseableHttpClient httpClient, RequestListener listener, RequestConfig requestConfig,
+                                    boolean ownsClient) {
+        this.httpClient    = httpClient;
+        this.listener      = listener;
+        this.requestConfig = requestConfig;
+        this.ownsClient    = ownsClient;
+    }
+
+    /**
+     * Returns a connection sharing the http client (and its connection pool) of this connection, for an endpoint
+     * with its own read timeout. Closing the returned connection does not close the shared client.
+     * @param readTimeout maximum time to wait for data of the response
+     * @return connection for the endpoint
+     */
+    public StreamingHttpConnection withReadTimeout(Duration readTimeout) {
+        RequestConfig config = RequestConfig.custom()
+                .setResponseTimeout(Timeout.ofMilliseconds(readTimeout.toMillis()))
+                .build();
+        return new StreamingHttpConnection(httpClient, listener, config, false);
+    }
+
+    /**
+     * Executes a GET request
+     * @param url url
+     * @param acceptHeaderValue value of the accept header
+     * @param auth authentication for the url, can be null
+     * @param reader reads the response
+     * @return the value returned by the reader
+     * @throws IOException if the request fails or the response can not be read
+     */
+    public <T> T get(String url, String acceptHeaderValue, AuthenticationHandler auth, ResponseReader<T> reader) throws IOException {
+        return get(url, acceptHeaderValue, Map.of(), auth, (status, headers, body) -> reader.read(status, body));
+    }
+
+    /**
+     * Executes a GET request with additional request headers, handing over the response headers to the reader
+     * @param url url
+     * @param acceptHeaderValue value of the accept header
+     * @param requestHeaders additional request headers, ex: conditional request headers
+     * @param auth authentication for the url, can be null
+     * @param reader reads the response
+     * @return the value returned by the reader
+     * @throws IOException if the request fails or the response can not be read
+     */
+    public <T> T get(String url, String acceptHeaderValue, Map<String, String> requestHeaders, AuthenticationHandler auth,
+                     HeaderResponseReader<T> reader) throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.addHeader(HttpHeaders.ACCEPT, acceptHeaderValue);
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            get.addHeader(header.getKey(), header.getValue());
+        }
+        return execute(url, get, auth, reader);
+    }
+
+    /**
+     * Executes a POST request
+     * @param url url
+     * @param body request body
+     * @param contentType content type of the body, also used as accept header
+     * @param auth authentication for the url, can be null
+     * @param reader reads the response
+     * @return the value returned by the reader
+     * @throws IOException if the request fails or the response can not be read
+     */
+    public <T> T post(String url, String body, String contentType, AuthenticationHandler auth, ResponseReader<T> reader) throws IOException {
+        HttpPost post = new HttpPost(url);
+        post.addHeader(HttpHeaders.ACCEPT, contentType);
+        post.setEntity(new StringEntity(body, ContentType.create(contentType, StandardCharsets.UTF_8)));
+        return execute(url, post, auth, (status, headers, response) -> reader.read(status, response));
+    }
+
+    private <T> T execute(String url, HttpUriRequestBase request, AuthenticationHandler auth, HeaderResponseReader<T> reader) throws IOException {
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP);
+        if (requestConfig != null) {
+            request.setConfig(requestConfig);
+        }
+        if (auth != null) {
+            auth.setAuthorization(request);
+        }
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        Exchange exchange = new Exchange();
+        try {
+            return httpClient.execute(request, response -> {
+                exchange.status = response.getCode();
+                HttpEntity entity = response.getEntity();
+                try (CountingInputStream body = new CountingInputStream(
+                        entity != null ? entity.getContent() : InputStream.nullInputStream())) {
+                    exchange.body = body;
+                    return reader.read(response.getCode(), name -> {
+                        Header header = response.getFirstHeader(name);
+                        return header != null ? header.getValue() : null;
+                    }, body);
+                }
+            });
+        } finally {
+            long bytes = exchange.getBytes();
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = request.getMethod();
+                event.url    = url;
+                event.status = exchange.status;
+                event.bytes  = bytes;
+                event.commit();
+            }
+            if (listener != null) {
+                listener.completed(request.getMethod(), url, exchange.status, bytes, System.nanoTime() - start);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsClient) {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Notified of every request, after its response was read or the request failed
+     */
+    @FunctionalInterface
+    public interface RequestListener {
+        /**
+         * @param method http method
+         * @param url url of the request
+         * @param status http status code of the response, 0 if no response was received
+         * @param bytes bytes of the response body read, after decompression
+         * @param durationNanos time from sending the request until the response was read
+         */
+        void completed(String method, String url, int status, long bytes, long durationNanos);
+    }
+
+    /**
+     * Reads the response of a request
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+        /**
+         * @param status http status code of the response
+         * @param body response body, decompressed if needed
+         * @return value read from the response
+         * @throws IOException if the body can not be read
+         */
+        T read(int status, InputStream body) throws IOException;
+    }
+
+    /**
+     * Reads the response of a request, including the response headers
+     */
+    @FunctionalInterface
+    public interface HeaderResponseReader<T> {
+        /**
+         * @param status http status code of the response
+         * @param headers returns the first value of a response header, null if the header is missing
+         * @param body response body, decompressed if needed
+         * @return value read from the response
+         * @throws IOException if the body can not be read
+         */
+        T read(int status, UnaryOperator<String> headers, InputStream body) throws IOException;
+    }
+
+    /**
+     * Status and body of the response of a request, kept for the listener until the request completed or failed
+     */
+    private static final class Exchange {
+        // 0 until a response is received
+        private int status;
+        private CountingInputStream body;
+
+        private long getBytes() {
+            return body != null ? body.count : 0;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
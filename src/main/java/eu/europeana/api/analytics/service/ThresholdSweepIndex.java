@@ -0,0 +1,146 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.model.ClientType;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers how many project or personal keys are regular for any pair of calls.per.day and active.days
+ * thresholds, without going through the apikey statistics again.
+ * A key has at least Y active days at X calls per day when its Y-th busiest day has at least X calls, so for
+ * every Y the index keeps a cumulative histogram of the Y-th busiest day of all the keys. Likewise a key is
+ * active per month when its total reaches days * X, which is a cumulative histogram of total / days.
+ * Both are looked up in constant time for calls per day up to the maximum given when building the index.
+ */
+public class ThresholdSweepIndex {
+
+    private final int days;
+    private final int maxCallsPerDay;
+    private final Map<ClientType, Histograms> histograms = new EnumMap<>(ClientType.class);
+
+    /**
+     * Builds the index over the external apikeys, internal clients are left out
+     * @param list apikey statistics
+     * @param registry client type of the apikeys
+     * @param days number of days of the statistics
+     * @param maxCallsPerDay highest calls per day threshold which can be looked up
+     */
+    public ThresholdSweepIndex(List<ApiKeyStats> list, ClientRegistry registry, int days, int maxCallsPerDay) {
+        this.days           = days;
+        this.maxCallsPerDay = maxCallsPerDay;
+        histograms.put(ClientType.PROJECT, new Histograms(days, maxCallsPerDay));
+        histograms.put(ClientType.PERSONAL, new Histograms(days, maxCallsPerDay));
+
+        int[] counts = new int[days];
+        for (ApiKeyStats stat : list) {
+            Histograms group = histograms.get(registry.classify(stat.getApiKey()));
+            if (group == null) {
+                continue;
+            }
+            for (int day = 0; day < days; day++) {
+                counts[day] = stat.getCount(day);
+            }
+            Arrays.sort(counts);
+            // counts[days - y] is the y-th busiest day
+            for (int y = 1; y <= days; y++) {
+                group.busiestDay[y][Math.min(counts[days - y], maxCallsPerDay)]++;
+            }
+            group.dailyAverage[Math.min(stat.getTotal() / Math.max(days, 1), maxCallsPerDay)]++;
+        }
+        for (Histograms group : histograms.values()) {
+            group.accumulate();
+        }
+    }
+
+    public int getDays()           { return days; }
+    public int getMaxCallsPerDay() { return maxCallsPerDay; }
+
+    /**
+     * @param type project or personal
+     * @param callsPerDay minimum calls for an active day, at most the maximum of the index
+     * @param activeDays minimum active days, at most the days of the statistics
+     * @return number of keys with at least <code>activeDays</code> days of at least <code>callsPerDay</code> calls
+     */
+    public int getActiveKeysPerDay(ClientType type, int callsPerDay, int activeDays) {
+        if (activeDays <= 0) {
+            return histograms.get(type).busiestDay[1][0];
+        }
+        return activeDays > days ? 0 : histograms.get(type).busiestDay[activeDays][callsPerDay];
+    }
+
+    /**
+     * @param type project or personal
+     * @param callsPerDay minimum calls per day on average, at most the maximum of the index
+     * @return number of keys with at least <code>days * callsPerDay</code> calls
+     */
+    public int getActiveKeysPerMonth(ClientType type, int callsPerDay) {
+        return histograms.get(type).dailyAverage[callsPerDay];
+    }
+
+    /**
+     * @return the regular keys, computed the same way as the monthly metric (max of both counts - 1)
+     */
+    public int getRegularKeys(ClientType type, int callsPerDay, int activeDays) {
+        return Math.max(getActiveKeysPerDay(type, callsPerDay, activeDays), getActiveKeysPerMonth(type, callsPerDay)) - 1;
+    }
+
+    /**
+     * Writes the regular keys for every pair of thresholds as csv
+     * @param out target of the report
+     */
+    public void writeReport(PrintWriter out) {
+        out.println("Type,Calls Per Day,Active Days,Active Keys Per Month,Active Keys Per Day,Regular Keys");
+        for (ClientType type : histograms.keySet()) {
+            for (int callsPerDay = 1; callsPerDay <= maxCallsPerDay; callsPerDay++) {
+                for (int activeDays = 1; activeDays <= days; activeDays++) {
+                    out.print(type);
+                    out.print(',');
+                    out.print(callsPerDay);
+                    out.print(',');
+                    out.print(activeDays);
+                    out.print(',');
+                    out.print(getActiveKeysPerMonth(type, callsPerDay) - 1);
+                    out.print(',');
+                    out.print(getActiveKeysPerDay(type, callsPerDay, activeDays) - 1);
+                    out.print(',');
+                    out.println(getRegularKeys(type, callsPerDay, activeDays));
+                }
+            }
+        }
+    }
+
+    /**
+     * Cumulative histograms of one client type, after {@link #accumulate()} the entry at x holds the number
+     * of keys with a value of at least x
+     */
+    private static final class Histograms {
+        // [y][x]: keys whose y-th busiest day has at least x calls
+        private final int[][] busiestDay;
+        // [x]: keys with on average at least x calls per day
+        private final int[]   dailyAverage;
+
+        private Histograms(int days, int maxCallsPerDay) {
+            busiestDay   = new int[days + 1][maxCallsPerDay + 1];
+            dailyAverage = new int[maxCallsPerDay + 1];
+        }
+
+        private void accumulate() {
+            for (int[] histogram : busiestDay) {
+                accumulate(histogram);
+            }
+            accumulate(dailyAverage);
+        }
+
+        private static void accumulate(int[] histogram) {
+            for (int x = histogram.length - 2; x >= 0; x--) {
+                histogram[x] += histogram[x + 1];
+            }
+        }
+    }
+}
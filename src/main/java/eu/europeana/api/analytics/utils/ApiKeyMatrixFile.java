@@ -0,0 +1,198 @@
+package eu.europeana.api.analytics.utils;
+
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.DayIndex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Binary columnar file of the apikey x day usage matrix, written next to the apikey/dates csv and read
+ * through a memory mapped file. All the sections have a fixed width, so any cell is read at a computed offset
+ * without parsing the file. All numbers are little endian.
+ * <pre>
+ * header      magic "AKDM", version (int), keys (int), days (int), key dictionary offset (long)
+ * day index   days x 10 bytes, ascii yyyy-MM-dd
+ * matrix      days x keys x int32, one column per day (the counts of all the keys for a day are contiguous)
+ * totals      keys x int32, total calls of every key
+ * active      keys x int32, active days of every key
+ * dictionary  (keys + 1) x int32 offsets relative to the first key, followed by the utf-8 encoded keys
+ * </pre>
+ */
+public class ApiKeyMatrixFile implements Closeable {
+
+    private static final int MAGIC       = 0x4D444B41; // "AKDM" in little endian
+    private static final int VERSION     = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int DAY_WIDTH   = 10;
+
+    private final FileChannel      channel;
+    private final MappedByteBuffer buffer;
+    private final int  keys;
+    private final int  days;
+    private final long matrixOffset;
+    private final int  dictionaryOffset;
+
+    private ApiKeyMatrixFile(FileChannel channel, MappedByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer  = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an apikey matrix file of version " + VERSION);
+        }
+        this.keys             = buffer.getInt(8);
+        this.days             = buffer.getInt(12);
+        this.dictionaryOffset = (int) buffer.getLong(16);
+        this.matrixOffset     = getMatrixOffset(days);
+    }
+
+    /**
+     * Opens the file for reading, memory mapped
+     * @param file apikey matrix file
+     * @return the opened file, to be closed by the caller
+     * @throws IOException if the file can not be read or is not an apikey matrix file
+     */
+    public static ApiKeyMatrixFile open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new ApiKeyMatrixFile(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the apikey statistics as apikey matrix file. The file is written sequentially to a temporary file
+     * which then replaces the target file, so readers of the previous file are not affected
+     * @param file target file
+     * @param list apikey statistics, all with the same day index
+     * @param dayIndex days of the statistics
+     * @throws IOException if the file can not be written
+     */
+    public static void write(File file, List<ApiKeyStats> list, DayIndex dayIndex) throws IOException {
+        int keys = list.size();
+        int days = dayIndex.size();
+        byte[][] encodedKeys = new byte[keys][];
+        long dictionarySize = 4L * (keys + 1);
+        for (int k = 0; k < keys; k++) {
+            encodedKeys[k] = list.get(k).getApiKey().getBytes(StandardCharsets.UTF_8);
+            dictionarySize += encodedKeys[k].length;
+        }
+        long matrixOffset     = getMatrixOffset(days);
+        long dictionaryOffset = matrixOffset + 4L * keys * (days + 2);
+        long size             = dictionaryOffset + dictionarySize;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Apikey matrix of " + keys + " keys and " + days + " days exceeds 2GB");
+        }
+
+        // readers may have the previous file mapped, so it is replaced instead of truncated
+        AtomicFiles.write(file.toPath(), tmp -> {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(keys).putInt(days).putLong(dictionaryOffset);
+                for (int d = 0; d < days; d++) {
+                    buffer.put(fixedWidth(dayIndex.getDay(d)));
+                }
+
+                // all the sections are written in file order, one day column after the other
+                buffer.position((int) matrixOffset);
+                for (int d = 0; d < days; d++) {
+                    for (ApiKeyStats stat : list) {
+                        buffer.putInt(stat.getCount(d));
+                    }
+                }
+                for (ApiKeyStats stat : list) {
+                    buffer.putInt(stat.getTotal());
+                }
+                for (ApiKeyStats stat : list) {
+                    buffer.putInt(stat.getActive());
+                }
+
+                int offset = 0;
+                for (byte[] key : encodedKeys) {
+                    buffer.putInt(offset);
+                    offset += key.length;
+                }
+                buffer.putInt(offset);
+                for (byte[] key : encodedKeys) {
+                    buffer.put(key);
+                }
+                buffer.force();
+            }
+        });
+    }
+
+    public int getKeys() { return keys; }
+    public int getDays() { return days; }
+
+    /**
+     * @param day position of the day
+     * @return the day, yyyy-MM-dd
+     */
+    public String getDay(int day) {
+        byte[] bytes = new byte[DAY_WIDTH];
+        buffer.get(HEADER_SIZE + day * DAY_WIDTH, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * @param key position of the key
+     * @return the apikey
+     */
+    public String getApiKey(int key) {
+        int keysStart = dictionaryOffset + 4 * (keys + 1);
+        int start = buffer.getInt(dictionaryOffset + 4 * key);
+        int end   = buffer.getInt(dictionaryOffset + 4 * (key + 1));
+        byte[] bytes = new byte[end - start];
+        buffer.get(keysStart + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param key position of the key
+     * @param day position of the day
+     * @return calls of the key on the day
+     */
+    public int getCount(int key, int day) {
+        return buffer.getInt((int) (matrixOffset + 4L * ((long) day * keys + key)));
+    }
+
+    public int getTotal(int key) {
+        return buffer.getInt((int) (matrixOffset + 4L * keys * days) + 4 * key);
+    }
+
+    public int getActive(int key) {
+        return buffer.getInt((int) (matrixOffset + 4L * keys * (days + 1)) + 4 * key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static long getMatrixOffset(int days) {
+        // keeps the int columns 4 byte aligned
+        long offset = HEADER_SIZE + (long) days * DAY_WIDTH;
+        return (offset + 3) & ~3L;
+    }
+
+    private static byte[] fixedWidth(String day) {
+        byte[] bytes = new byte[DAY_WIDTH];
+        byte[] value = day.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(value, 0, bytes, 0, Math.min(value.length, DAY_WIDTH));
+        for (int i = value.length; i < DAY_WIDTH; i++) {
+            bytes[i] = ' ';
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,69 @@
+package eu.europeana.api.analytics.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Replaces files at once: the content is written to a temporary file in the same directory, which is moved over
+ * the target file once it is complete. Readers never see a partially written file, and a failed or interrupted
+ * write leaves the previous file untouched. The temporary file is always removed when the write fails.
+ */
+public final class AtomicFiles {
+
+    private AtomicFiles() {
+        // static helpers only
+    }
+
+    /**
+     * Writes the file through a temporary file
+     * @param file target file, its directory is created if needed
+     * @param writer writes the content to the temporary file
+     * @throws IOException if the content could not be written or the file could not be replaced
+     */
+    public static void write(Path file, TempFileWriter writer) throws IOException {
+        Path tmp = createTempFile(file);
+        try {
+            writer.write(tmp);
+            replace(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file next to the file, to be moved over it with {@link #replace(Path, Path)}
+     * once it is complete. The caller removes the temporary file if it is not moved.
+     * @param file target file, its directory is created if needed
+     * @return the temporary file
+     * @throws IOException if the temporary file could not be created
+     */
+    public static Path createTempFile(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        return Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    }
+
+    /**
+     * Moves the complete temporary file over the file at once
+     * @param tmp temporary file created with {@link #createTempFile(Path)}
+     * @param file target file
+     * @throws IOException if the file could not be replaced
+     */
+    public static void replace(Path tmp, Path file) throws IOException {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the content of a file
+     */
+    @FunctionalInterface
+    public interface TempFileWriter {
+        /**
+         * @param tmp temporary file to write, it already exists and is empty
+         * @throws IOException if the content could not be written
+         */
+        void write(Path tmp) throws IOException;
+    }
+}
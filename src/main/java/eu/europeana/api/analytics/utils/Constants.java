@@ -21,16 +21,47 @@ public class Constants extends UsageStatsFields {
     public static final String AGENT                         = "Agent";
     public static final String TOTAL                         = "Total";
 
+    // Rolling usage DataBox Constants
+    public static final String ROLLING_ACTIVE_KEYS_PER_DAY   = "RollingActiveKeysPerDay";
+    public static final String ROLLING_ACTIVE_KEYS_PER_MONTH = "RollingActiveKeysPerMonth";
+    public static final String WINDOW_ATTRIBUTE              = "Window";
+
     // Beans
     public static final String ELASTIC_SEARCH_CONNECTION   = "elasticSearchConnection";
     public static final String REGISTERED_CLIENT_CONNECTION= "registeredClientConnection";
     public static final String ANALYTICS_API_AUTH          = "analyticsApiAuth";
 
     public static final String DATABOX                     = "databox";
+    public static final String DATABOX_OUTBOX              = "databoxOutbox";
+    public static final String KPI_VALUE_STORE             = "kpiValueStore";
+    public static final String RESPONSE_CACHE              = "responseCache";
+    public static final String APIKEY_USAGE_STORE          = "apiKeyUsageStore";
+    public static final String RUN_METRICS                 = "runMetrics";
+    public static final String HTTP_CONNECTION             = "httpConnection";
+    public static final String STATS_HTTP_CONNECTION       = "statsHttpConnection";
 
     // error constants
     public static final String ERROR                      = "error";
     public static final String REASON                     = "reason";
     public static final String ROOT_CAUSE                 = "root_cause";
 
+    // elastic search request constants
+    public static final String AGGS                       = "aggs";
+    public static final String APIKEYS                    = "apikeys";
+    public static final String TERMS                      = "terms";
+    public static final String FIELD                      = "field";
+    public static final String COMPOSITE                  = "composite";
+    public static final String SIZE                       = "size";
+    public static final String SOURCES                    = "sources";
+    public static final String AFTER                      = "after";
+    public static final String QUERY                      = "query";
+    public static final String BOOL                       = "bool";
+    public static final String FILTER                     = "filter";
+    public static final String RANGE                      = "range";
+    public static final String TIMESTAMP                  = "@timestamp";
+    public static final String GTE                        = "gte";
+    public static final String LT                         = "lt";
+    public static final String FORMAT                     = "format";
+    public static final String DATE_FORMAT                = "yyyy-MM-dd";
+
 }
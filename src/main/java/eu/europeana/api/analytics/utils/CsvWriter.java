@@ -0,0 +1,157 @@
+package eu.europeana.api.analytics.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Minimal buffered csv writer.
+ * Fields are copied into a char buffer which is only flushed when full, and int fields are formatted
+ * straight into the buffer, so writing a cell neither boxes nor allocates a String.
+ * The values are written as they are, without quoting.
+ */
+public class CsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // longest int: -2147483648
+    private static final int MAX_INT_CHARS = 11;
+
+    private final Writer writer;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int     position;
+    private boolean rowStarted;
+
+    /**
+     * Constructor
+     * @param file target file
+     * @param gzip if true the file is gzip compressed
+     * @throws IOException if the file can not be created
+     */
+    public CsvWriter(File file, boolean gzip) throws IOException {
+        this(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), gzip);
+    }
+
+    /**
+     * Constructor
+     * @param out target stream, closed with the writer, or right away if the writer can not be created
+     * @param gzip if true the output is gzip compressed
+     * @throws IOException if the gzip header can not be written
+     */
+    public CsvWriter(OutputStream out, boolean gzip) throws IOException {
+        this.writer = new OutputStreamWriter(gzip ? gzip(out) : out, StandardCharsets.UTF_8);
+    }
+
+    private static OutputStream gzip(OutputStream out) throws IOException {
+        try {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                out.close();
+            } catch (IOException closeError) {
+                e.addSuppressed(closeError);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a text field
+     * @param value value of the field
+     * @return this writer
+     * @throws IOException if the buffer could not be flushed
+     */
+    public CsvWriter field(String value) throws IOException {
+        separator();
+        int length = value.length();
+        int offset = 0;
+        while (offset < length) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            int chunk = Math.min(length - offset, buffer.length - position);
+            value.getChars(offset, offset + chunk, buffer, position);
+            position += chunk;
+            offset   += chunk;
+        }
+        return this;
+    }
+
+    /**
+     * Writes a numeric field
+     * @param value value of the field
+     * @return this writer
+     * @throws IOException if the buffer could not be flushed
+     */
+    public CsvWriter field(int value) throws IOException {
+        separator();
+        ensureCapacity(MAX_INT_CHARS);
+        if (value == Integer.MIN_VALUE) {
+            position = writeChars(String.valueOf(value));
+            return this;
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        position += digits;
+        return this;
+    }
+
+    /**
+     * Ends the current row
+     * @throws IOException if the buffer could not be flushed
+     */
+    public void endRow() throws IOException {
+        ensureCapacity(1);
+        buffer[position++] = '\n';
+        rowStarted = false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (rowStarted) {
+            ensureCapacity(1);
+            buffer[position++] = ',';
+        }
+        rowStarted = true;
+    }
+
+    private void ensureCapacity(int chars) throws IOException {
+        if (buffer.length - position < chars) {
+            flushBuffer();
+        }
+    }
+
+    private int writeChars(String value) {
+        value.getChars(0, value.length(), buffer, position);
+        return position + value.length();
+    }
+
+    private void flushBuffer() throws IOException {
+        writer.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -1,8 +1,9 @@
 package eu.europeana.api.analytics.utils;
 
-import com.databox.sdk.Databox;
-import com.databox.sdk.KPI;
 import eu.europeana.api.analytics.exception.DataboxPushFailedException;
+import eu.europeana.api.analytics.model.ClientType;
+import eu.europeana.api.analytics.model.DataboxKpi;
+import eu.europeana.api.analytics.service.ApiKeyUsageAggregator;
 import eu.europeana.api.commons.definitions.statistics.UsageStatsFields;
 import eu.europeana.api.commons.definitions.statistics.entity.EntitiesPerLanguage;
 import eu.europeana.api.commons.definitions.statistics.entity.EntityStats;
@@ -10,9 +11,6 @@ import eu.europeana.api.commons.definitions.statistics.search.HighQualityMetric;
 import eu.europeana.api.commons.definitions.statistics.set.SetMetric;
 import eu.europeana.api.commons.definitions.statistics.user.ELKMetric;
 import eu.europeana.api.commons.definitions.statistics.user.UserMetric;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,12 +18,11 @@ import static eu.europeana.api.commons.definitions.statistics.UsageStatsFields.*
 
 /**
  * Utils class for Databox Service
+ * Builds the KPIs of the metrics and adds them to a {@link KpiBatch} to be pushed to databox
  * @author srishti singh
  */
 public class DataboxUtils {
 
-    private static final Logger LOG = LogManager.getLogger(DataboxUtils.class);
-
     /**
      * Method to push all the High quality data in one metric collectively.
      * With Attribute as the type of metric and Value as the value/count of the metric.
@@ -40,20 +37,18 @@ public class DataboxUtils {
      *
      * @param linkedItemMetric
      * @param keyValue values can be allRecords, nonCompliantRecord, allCompliantRecords etc.
-     * @param databox
+     * @param batch
      */
-    public static void pushHighQualityMetric(HighQualityMetric linkedItemMetric, Databox databox, String keyValue) throws DataboxPushFailedException {
+    public static void addHighQualityMetric(HighQualityMetric linkedItemMetric, KpiBatch batch, String keyValue) throws DataboxPushFailedException {
         try {
-            List<KPI> kpis = new ArrayList<>();
-            kpis.add(new KPI().setKey(keyValue).setValue(linkedItemMetric.getImage()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.IMAGE));
-            kpis.add(new KPI().setKey(keyValue).setValue(linkedItemMetric.getText()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.TEXT));
-            kpis.add(new KPI().setKey(keyValue).setValue(linkedItemMetric.getAudio()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.AUDIO));
-            kpis.add(new KPI().setKey(keyValue).setValue(linkedItemMetric.getVideo()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.VIDEO));
-            kpis.add(new KPI().setKey(keyValue).setValue(linkedItemMetric.getThreeD()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.THREE_D));
-            kpis.add(new KPI().setKey(keyValue).setValue(linkedItemMetric.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.ALL));
-
-            databox.push(kpis);
-            LOG.info("Successfully pushed the high quality metric data to databox");
+            List<DataboxKpi> kpis = new ArrayList<>();
+            kpis.add(new DataboxKpi(keyValue, linkedItemMetric.getImage()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.IMAGE));
+            kpis.add(new DataboxKpi(keyValue, linkedItemMetric.getText()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.TEXT));
+            kpis.add(new DataboxKpi(keyValue, linkedItemMetric.getAudio()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.AUDIO));
+            kpis.add(new DataboxKpi(keyValue, linkedItemMetric.getVideo()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.VIDEO));
+            kpis.add(new DataboxKpi(keyValue, linkedItemMetric.getThreeD()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.THREE_D));
+            kpis.add(new DataboxKpi(keyValue, linkedItemMetric.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.ALL));
+            batch.add(keyValue, kpis);
         } catch (RuntimeException e) {
             throw new DataboxPushFailedException(keyValue, e.getLocalizedMessage());
         }
@@ -72,20 +67,18 @@ public class DataboxUtils {
      *         ]}
      *
      * @param linkedItemMetric
-     * @param databox
+     * @param batch
      */
-    public static void pushLinkedItems(EntityStats linkedItemMetric, Databox databox) throws DataboxPushFailedException {
+    public static void addLinkedItems(EntityStats linkedItemMetric, KpiBatch batch) throws DataboxPushFailedException {
         try {
-            List<KPI> kpis = new ArrayList<>();
-            kpis.add(new KPI().setKey(Constants.ITEMS_LINKED_TO_ENTITIES).setValue(linkedItemMetric.getAgents()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.AGENT));
-            kpis.add(new KPI().setKey(Constants.ITEMS_LINKED_TO_ENTITIES).setValue(linkedItemMetric.getConcepts()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.CONCEPT));
-            kpis.add(new KPI().setKey(Constants.ITEMS_LINKED_TO_ENTITIES).setValue(linkedItemMetric.getOrganisations()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ORGANISATION));
-            kpis.add(new KPI().setKey(Constants.ITEMS_LINKED_TO_ENTITIES).setValue(linkedItemMetric.getTimespans()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.TIMESPAN));
-            kpis.add(new KPI().setKey(Constants.ITEMS_LINKED_TO_ENTITIES).setValue(linkedItemMetric.getPlaces()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PLACE));
-            kpis.add(new KPI().setKey(Constants.ITEMS_LINKED_TO_ENTITIES).setValue(linkedItemMetric.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ALL));
-
-            databox.push(kpis);
-            LOG.info("Successfully pushed the linked items for entites data to databox");
+            List<DataboxKpi> kpis = new ArrayList<>();
+            kpis.add(new DataboxKpi(Constants.ITEMS_LINKED_TO_ENTITIES, linkedItemMetric.getAgents()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.AGENT));
+            kpis.add(new DataboxKpi(Constants.ITEMS_LINKED_TO_ENTITIES, linkedItemMetric.getConcepts()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.CONCEPT));
+            kpis.add(new DataboxKpi(Constants.ITEMS_LINKED_TO_ENTITIES, linkedItemMetric.getOrganisations()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ORGANISATION));
+            kpis.add(new DataboxKpi(Constants.ITEMS_LINKED_TO_ENTITIES, linkedItemMetric.getTimespans()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.TIMESPAN));
+            kpis.add(new DataboxKpi(Constants.ITEMS_LINKED_TO_ENTITIES, linkedItemMetric.getPlaces()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PLACE));
+            kpis.add(new DataboxKpi(Constants.ITEMS_LINKED_TO_ENTITIES, linkedItemMetric.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ALL));
+            batch.add(Constants.ITEMS_LINKED_TO_ENTITIES, kpis);
         } catch (RuntimeException e) {
             throw new DataboxPushFailedException(Constants.ITEMS_LINKED_TO_ENTITIES, e.getLocalizedMessage());
         }
@@ -107,23 +100,21 @@ public class DataboxUtils {
      *         ]}
      *
      * @param galleryMetricData
-     * @param databox
+     * @param batch
      */
-    public static void pushCollectiveGalleryDataToDataBox(SetMetric galleryMetricData, Databox databox) throws DataboxPushFailedException {
+    public static void addCollectiveGalleryData(SetMetric galleryMetricData, KpiBatch batch) throws DataboxPushFailedException {
         try {
-            List<KPI> kpis = new ArrayList<>();
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNoOfPublicSets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PUBLIC_SETS));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNoOfPrivateSets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PRIVATE_SETS));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNoOfItemsLiked()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ITEMS_LIKED));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getAverageSetsPerUser()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.SETS_PER_USER));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNumberOfUsersWithGallery()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_USER_WITH_GALLERY));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNumberOfUsersWithLike()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_USER_WITH_LIKE));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNumberOfUsersWithLikeOrGallery()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_USER_WITH_LIKE_OR_GALLERY));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNumberOfEntitySets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_ENTITY_SETS));
-            kpis.add(new KPI().setKey(Constants.GALLERY_METRICS).setValue(galleryMetricData.getNumberOfItemsInEntitySets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_ITEMS_IN_ENTITY_SETS));
-
-            databox.push(kpis);
-            LOG.info("Successfully pushed the gallery data to databox");
+            List<DataboxKpi> kpis = new ArrayList<>();
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNoOfPublicSets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PUBLIC_SETS));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNoOfPrivateSets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PRIVATE_SETS));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNoOfItemsLiked()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ITEMS_LIKED));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getAverageSetsPerUser()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.SETS_PER_USER));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNumberOfUsersWithGallery()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_USER_WITH_GALLERY));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNumberOfUsersWithLike()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_USER_WITH_LIKE));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNumberOfUsersWithLikeOrGallery()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_USER_WITH_LIKE_OR_GALLERY));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNumberOfEntitySets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_ENTITY_SETS));
+            kpis.add(new DataboxKpi(Constants.GALLERY_METRICS, galleryMetricData.getNumberOfItemsInEntitySets()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.NUMBER_OF_ITEMS_IN_ENTITY_SETS));
+            batch.add(Constants.GALLERY_METRICS, kpis);
         } catch (RuntimeException e) {
             throw new DataboxPushFailedException(Constants.GALLERY_METRICS, e.getLocalizedMessage());
         }
@@ -142,20 +133,18 @@ public class DataboxUtils {
      *   ]}
      *
      * @param entity
-     * @param databox
+     * @param batch
      */
-    public static void pushEntityPerLanguageDataToDataBox(EntitiesPerLanguage entity, Databox databox) throws DataboxPushFailedException {
+    public static void addEntityPerLanguageData(EntitiesPerLanguage entity, KpiBatch batch) throws DataboxPushFailedException {
         try {
-            List<KPI> kpis = new ArrayList<>();
-            kpis.add(new KPI().setKey(Constants.TIMESPAN).setValue(entity.getTimespans()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
-            kpis.add(new KPI().setKey(Constants.CONCEPT).setValue(entity.getConcepts()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
-            kpis.add(new KPI().setKey(Constants.ORGANISATION).setValue(entity.getOrganisations()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
-            kpis.add(new KPI().setKey(Constants.AGENT).setValue(entity.getAgents()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
-            kpis.add(new KPI().setKey(Constants.PLACE).setValue(entity.getPlaces()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
-            kpis.add(new KPI().setKey(Constants.TOTAL).setValue(entity.getAll()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
-
-            databox.push(kpis);
-            LOG.info("Successfully pushed the entity data for language {} to databox", entity.getLang());
+            List<DataboxKpi> kpis = new ArrayList<>();
+            kpis.add(new DataboxKpi(Constants.TIMESPAN, entity.getTimespans()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
+            kpis.add(new DataboxKpi(Constants.CONCEPT, entity.getConcepts()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
+            kpis.add(new DataboxKpi(Constants.ORGANISATION, entity.getOrganisations()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
+            kpis.add(new DataboxKpi(Constants.AGENT, entity.getAgents()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
+            kpis.add(new DataboxKpi(Constants.PLACE, entity.getPlaces()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
+            kpis.add(new DataboxKpi(Constants.TOTAL, entity.getAll()).addAttribute(Constants.ENTITY_ATTRIBUTE_LANG, entity.getLang()));
+            batch.add("entity for " + Constants.ENTITY_ATTRIBUTE_LANG + " " + entity.getLang(), kpis);
         } catch (RuntimeException e) {
             throw new DataboxPushFailedException("entity for " + Constants.ENTITY_ATTRIBUTE_LANG + " " + entity.getLang(), e.getLocalizedMessage());
         }
@@ -172,20 +161,19 @@ public class DataboxUtils {
      *                { "$EntityPerType": 11449.0, "Type": "Total"}]}
      *
      * @param entity
-     * @param databox
+     * @param batch
      * @throws DataboxPushFailedException
      */
-    public static void pushEntityPerTypeDataToDataBox(EntityStats entity, Databox databox) throws DataboxPushFailedException {
+    public static void addEntityPerTypeData(EntityStats entity, KpiBatch batch) throws DataboxPushFailedException {
         try {
-            List<KPI> kpis = new ArrayList<>();
-            kpis.add(new KPI().setKey(Constants.ENTITY_TYPE_METRICS).setValue(entity.getAgents()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.AGENT));
-            kpis.add(new KPI().setKey(Constants.ENTITY_TYPE_METRICS).setValue(entity.getConcepts()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.CONCEPT));
-            kpis.add(new KPI().setKey(Constants.ENTITY_TYPE_METRICS).setValue(entity.getPlaces()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PLACE));
-            kpis.add(new KPI().setKey(Constants.ENTITY_TYPE_METRICS).setValue(entity.getOrganisations()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ORGANISATION));
-            kpis.add(new KPI().setKey(Constants.ENTITY_TYPE_METRICS).setValue(entity.getTimespans()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.TIMESPAN));
-            kpis.add(new KPI().setKey(Constants.ENTITY_TYPE_METRICS).setValue(entity.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.TOTAL));
-            databox.push(kpis);
-            LOG.info("Successfully pushed the entity per type data to databox");
+            List<DataboxKpi> kpis = new ArrayList<>();
+            kpis.add(new DataboxKpi(Constants.ENTITY_TYPE_METRICS, entity.getAgents()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.AGENT));
+            kpis.add(new DataboxKpi(Constants.ENTITY_TYPE_METRICS, entity.getConcepts()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.CONCEPT));
+            kpis.add(new DataboxKpi(Constants.ENTITY_TYPE_METRICS, entity.getPlaces()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.PLACE));
+            kpis.add(new DataboxKpi(Constants.ENTITY_TYPE_METRICS, entity.getOrganisations()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.ORGANISATION));
+            kpis.add(new DataboxKpi(Constants.ENTITY_TYPE_METRICS, entity.getTimespans()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.TIMESPAN));
+            kpis.add(new DataboxKpi(Constants.ENTITY_TYPE_METRICS, entity.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, Constants.TOTAL));
+            batch.add(Constants.ENTITY_TYPE_METRICS, kpis);
         } catch (RuntimeException e) {
             throw new DataboxPushFailedException(Constants.ENTITY_TYPE_METRICS, e.getLocalizedMessage(), e);
         }
@@ -195,24 +183,23 @@ public class DataboxUtils {
      * Push user data
      *
      * @param userMetric user metric
-     * @param databox databox instance
-     * @throws DataboxPushFailedException exception during databox push
+     * @param batch batch the KPIs are added to
+     * @throws DataboxPushFailedException exception while building the KPIs
      */
-    public static  void pushUserData(UserMetric userMetric, Databox databox) throws DataboxPushFailedException {
+    public static  void addUserData(UserMetric userMetric, KpiBatch batch) throws DataboxPushFailedException {
         try {
-            List<KPI> kpis = new ArrayList<>();
-            kpis.add(new KPI().setKey(NumberOfUsers).setValue(userMetric.getNumberOfUsers()));
+            List<DataboxKpi> kpis = new ArrayList<>();
+            kpis.add(new DataboxKpi(NumberOfUsers, userMetric.getNumberOfUsers()));
 
             if (userMetric.getRegisteredClients() != null) {
-                kpis.add(new KPI().setKey(RegisteredClients).setValue(userMetric.getRegisteredClients().getPersonal())
+                kpis.add(new DataboxKpi(RegisteredClients, userMetric.getRegisteredClients().getPersonal())
                         .addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.Personal));
-                kpis.add(new KPI().setKey(RegisteredClients).setValue(userMetric.getRegisteredClients().getProject())
+                kpis.add(new DataboxKpi(RegisteredClients, userMetric.getRegisteredClients().getProject())
                         .addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.Project));
-                kpis.add(new KPI().setKey(RegisteredClients).setValue(userMetric.getRegisteredClients().getInternal())
+                kpis.add(new DataboxKpi(RegisteredClients, userMetric.getRegisteredClients().getInternal())
                         .addAttribute(Constants.TYPE_ATTRIBUTE, UsageStatsFields.Internal));
             }
-            databox.push(kpis);
-            LOG.info("Successfully pushed the user and client data to databox");
+            batch.add(NumberOfUsers + ", " + RegisteredClients, kpis);
         } catch (RuntimeException e) {
             throw new DataboxPushFailedException(NumberOfUsers + ", " + RegisteredClients, e.getLocalizedMessage(), e);
         }
@@ -221,28 +208,59 @@ public class DataboxUtils {
     /**
      * Push Elk metric
      * @param elkMetric elk metric
-     * @param databox databox instance
-     * @throws DataboxPushFailedException exception during databox push
+     * @param batch batch the KPIs are added to
+     * @throws DataboxPushFailedException exception while building the KPIs
      */
-    public static  void pushElkData(ELKMetric elkMetric, Databox databox) throws DataboxPushFailedException {
+    public static  void addElkData(ELKMetric elkMetric, KpiBatch batch) throws DataboxPushFailedException {
         try {
-            List<KPI> kpis = new ArrayList<>();
+            List<DataboxKpi> kpis = new ArrayList<>();
 
-            kpis.add(new KPI().setKey(ClientUsage).setValue(elkMetric.getInternalClientUsage()).addAttribute(Constants.TYPE_ATTRIBUTE, Internal));
-            kpis.add(new KPI().setKey(ClientUsage).setValue(elkMetric.getExternalClientUsage()).addAttribute(Constants.TYPE_ATTRIBUTE, External));
+            kpis.add(new DataboxKpi(ClientUsage, elkMetric.getInternalClientUsage()).addAttribute(Constants.TYPE_ATTRIBUTE, Internal));
+            kpis.add(new DataboxKpi(ClientUsage, elkMetric.getExternalClientUsage()).addAttribute(Constants.TYPE_ATTRIBUTE, External));
 
-            kpis.add(new KPI().setKey(ActiveExternalClients).setValue(elkMetric.getRegularCustomer()).addAttribute(Constants.TYPE_ATTRIBUTE, RegularCustomer));
-            kpis.add(new KPI().setKey(ActiveExternalClients).setValue(elkMetric.getAllCustomer()).addAttribute(Constants.TYPE_ATTRIBUTE, AllCustomer));
+            kpis.add(new DataboxKpi(ActiveExternalClients, elkMetric.getRegularCustomer()).addAttribute(Constants.TYPE_ATTRIBUTE, RegularCustomer));
+            kpis.add(new DataboxKpi(ActiveExternalClients, elkMetric.getAllCustomer()).addAttribute(Constants.TYPE_ATTRIBUTE, AllCustomer));
 
-            kpis.add(new KPI().setKey(ActiveExternalClients).setValue(elkMetric.getRegularUser()).addAttribute(Constants.TYPE_ATTRIBUTE, RegularUser));
-            kpis.add(new KPI().setKey(ActiveExternalClients).setValue(elkMetric.getAllUser()).addAttribute(Constants.TYPE_ATTRIBUTE, AllUser));
+            kpis.add(new DataboxKpi(ActiveExternalClients, elkMetric.getRegularUser()).addAttribute(Constants.TYPE_ATTRIBUTE, RegularUser));
+            kpis.add(new DataboxKpi(ActiveExternalClients, elkMetric.getAllUser()).addAttribute(Constants.TYPE_ATTRIBUTE, AllUser));
 
-            kpis.add(new KPI().setKey(ActiveExternalClients).setValue(elkMetric.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, All));
-
-            databox.push(kpis);
-            LOG.info("Successfully pushed the user/account holders data to databox");
+            kpis.add(new DataboxKpi(ActiveExternalClients, elkMetric.getAll()).addAttribute(Constants.TYPE_ATTRIBUTE, All));
+            batch.add(ClientUsage + ", " + ActiveExternalClients, kpis);
         } catch (RuntimeException e) {
             throw new DataboxPushFailedException(ClientUsage + ", " + ActiveExternalClients, e.getLocalizedMessage(), e);
         }
     }
+
+    /**
+     * Push the active keys of a rolling usage window. Unlike the monthly active clients, these are the actual
+     * counts (an empty window pushes 0)
+     * example :
+     *  {"data": [ { "$RollingActiveKeysPerDay": 12, "Window": "7d", "Type": "Project"},
+     *             { "$RollingActiveKeysPerMonth": 15, "Window": "7d", "Type": "Project"},
+     *             { "$RollingActiveKeysPerDay": 40, "Window": "7d", "Type": "Personal"},
+     *             { "$RollingActiveKeysPerMonth": 52, "Window": "7d", "Type": "Personal"}
+     *         ]}
+     *
+     * @param days length of the window in days
+     * @param usage aggregated usage of the window
+     * @param batch batch the KPIs are added to
+     * @throws DataboxPushFailedException exception while building the KPIs
+     */
+    public static void addRollingUsageData(int days, ApiKeyUsageAggregator usage, KpiBatch batch) throws DataboxPushFailedException {
+        String window = days + "d";
+        try {
+            List<DataboxKpi> kpis = new ArrayList<>();
+            kpis.add(new DataboxKpi(Constants.ROLLING_ACTIVE_KEYS_PER_DAY, usage.getActiveKeysPerDay(ClientType.PROJECT))
+                    .addAttribute(Constants.WINDOW_ATTRIBUTE, window).addAttribute(Constants.TYPE_ATTRIBUTE, Project));
+            kpis.add(new DataboxKpi(Constants.ROLLING_ACTIVE_KEYS_PER_MONTH, usage.getActiveKeysPerMonth(ClientType.PROJECT))
+                    .addAttribute(Constants.WINDOW_ATTRIBUTE, window).addAttribute(Constants.TYPE_ATTRIBUTE, Project));
+            kpis.add(new DataboxKpi(Constants.ROLLING_ACTIVE_KEYS_PER_DAY, usage.getActiveKeysPerDay(ClientType.PERSONAL))
+                    .addAttribute(Constants.WINDOW_ATTRIBUTE, window).addAttribute(Constants.TYPE_ATTRIBUTE, Personal));
+            kpis.add(new DataboxKpi(Constants.ROLLING_ACTIVE_KEYS_PER_MONTH, usage.getActiveKeysPerMonth(ClientType.PERSONAL))
+                    .addAttribute(Constants.WINDOW_ATTRIBUTE, window).addAttribute(Constants.TYPE_ATTRIBUTE, Personal));
+            batch.add("rolling usage for " + window, kpis);
+        } catch (RuntimeException e) {
+            throw new DataboxPushFailedException("rolling usage for " + window, e.getLocalizedMessage(), e);
+        }
+    }
 }
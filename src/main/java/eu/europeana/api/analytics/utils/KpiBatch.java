@@ -0,0 +1,102 @@
+package eu.europeana.api.analytics.utils;
+
+import eu.europeana.api.analytics.model.DataboxKpi;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+/**
+ * Collects the KPIs of several metrics and groups them in as few databox push requests as possible.
+ * A new request is only started when the estimated payload size of the current one would exceed the limit.
+ */
+public class KpiBatch {
+
+    // {"data":[ ... ]}
+    private static final int PAYLOAD_OVERHEAD = 12;
+
+    private final int maxPayloadBytes;
+    private final Predicate<DataboxKpi> filter;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private int skipped;
+
+    /**
+     * Constructor
+     * @param maxPayloadBytes maximum size of a push request payload
+     * @param filter only the KPIs matching the filter are added, can be null
+     */
+    public KpiBatch(int maxPayloadBytes, Predicate<DataboxKpi> filter) {
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.filter          = filter;
+    }
+
+    /**
+     * Adds the KPIs of a metric to the batch
+     * @param metric name of the metric, used for logging and error reporting
+     * @param kpis KPIs of the metric
+     */
+    public synchronized void add(String metric, List<DataboxKpi> kpis) {
+        for (DataboxKpi kpi : kpis) {
+            if (filter != null && !filter.test(kpi)) {
+                skipped++;
+                continue;
+            }
+            int size = kpi.getEstimatedSize() + 1;
+            Chunk chunk = (chunks.isEmpty() ? null : chunks.get(chunks.size() - 1));
+            if (chunk == null || (!chunk.kpis.isEmpty() && chunk.size + size > maxPayloadBytes)) {
+                chunk = new Chunk();
+                chunks.add(chunk);
+            }
+            chunk.add(metric, kpi, size);
+        }
+    }
+
+    /**
+     * @return true if no KPIs were added to the batch
+     */
+    public synchronized boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    /**
+     * @return the number of KPIs which did not match the filter
+     */
+    public synchronized int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * @return the number of push requests needed for the batch
+     */
+    public synchronized int getRequests() {
+        return chunks.size();
+    }
+
+    /**
+     * Hands over the push requests of the batch
+     * @param request receives the name of the metrics and the KPIs of every push request
+     */
+    public synchronized void forEachRequest(BiConsumer<String, List<DataboxKpi>> request) {
+        for (Chunk chunk : chunks) {
+            request.accept(String.join(", ", chunk.metrics), List.copyOf(chunk.kpis));
+        }
+    }
+
+    /**
+     * KPIs pushed in one request
+     */
+    private static final class Chunk {
+        private final List<DataboxKpi> kpis    = new ArrayList<>();
+        private final Set<String>      metrics = new LinkedHashSet<>();
+        private int size = PAYLOAD_OVERHEAD;
+
+        private void add(String metric, DataboxKpi kpi, int kpiSize) {
+            kpis.add(kpi);
+            metrics.add(metric);
+            size += kpiSize;
+        }
+    }
+}
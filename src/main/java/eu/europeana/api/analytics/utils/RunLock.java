@@ -0,0 +1,62 @@
+package eu.europeana.api.analytics.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exclusive lock on a file, held for the duration of a run, so that a daemon and a one-shot run (or two one-shot
+ * runs started by an external scheduler) never push to databox at the same time.
+ * The lock is released by the operating system if the process dies, a left over lock file does not block runs.
+ */
+public final class RunLock implements Closeable {
+
+    private final FileChannel channel;
+    private final FileLock    lock;
+
+    private RunLock(FileChannel channel, FileLock lock) {
+        this.channel = channel;
+        this.lock    = lock;
+    }
+
+    /**
+     * Tries to take the lock without waiting
+     * @param file lock file, null for no locking
+     * @return the lock to be closed at the end of the run, null if the lock is held by another run
+     * @throws IOException if the lock file can not be opened
+     */
+    public static RunLock tryAcquire(File file) throws IOException {
+        if (file == null) {
+            return new RunLock(null, null);
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            FileLock lock = channel.tryLock();
+            if (lock != null) {
+                return new RunLock(channel, lock);
+            }
+        } catch (OverlappingFileLockException e) {
+            // held by another run of this process
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            try {
+                lock.release();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Parses responses captured from Elastic search for the terms (apikey_k8s.json) and the composite apikeys
+ * aggregations, see src/test/resources/elasticsearch
+ */
+class ApiKeyAggregationParserTest {
+
+    private final ApiKeyAggregationParser parser = new ApiKeyAggregationParser(new JsonFactory());
+
+    @Test
+    void readsTermsBuckets() throws IOException {
+        Buckets buckets = new Buckets();
+        assertNull(parse("apikeys-terms.json", buckets));
+
+        assertEquals(Map.of(
+                "api2demo", List.of("2024-01-01=700", "2024-01-02=0", "2024-01-03=820"),
+                "xyzpersonal", List.of("2024-01-02=7")), buckets.usage);
+        assertEquals(List.of("api2demo", "xyzpersonal"), new ArrayList<>(buckets.usage.keySet()));
+        // the dates are shared by all the apikeys of the response
+        assertSame(buckets.dates.get("api2demo")[1], buckets.dates.get("xyzpersonal")[0]);
+    }
+
+    @Test
+    void readsCompositeBucketsAndAfterKey() throws IOException {
+        Buckets buckets = new Buckets();
+        Map<String, String> afterKey = parse("apikeys-composite-page.json", buckets);
+
+        assertEquals(Map.of("client_key", "bbbproject"), afterKey);
+        assertEquals(Map.of(
+                "aaainternal", List.of("2024-01-01=30", "2024-01-02=1"),
+                "bbbproject", List.of("2024-01-03=12")), buckets.usage);
+    }
+
+    @Test
+    void lastPageHasNoAfterKey() throws IOException {
+        Buckets buckets = new Buckets();
+        assertNull(parse("apikeys-composite-last-page.json", buckets));
+        assertTrue(buckets.usage.isEmpty());
+    }
+
+    @Test
+    void pageWithoutAfterKeyIsTheLast() throws IOException {
+        Buckets buckets = new Buckets();
+        assertNull(parse("apikeys-composite-without-after-key.json", buckets));
+        assertEquals(Map.of("zzzlast", List.of("2024-01-31=3")), buckets.usage);
+    }
+
+    @Test
+    void skipsUnknownFieldsAndIncompleteBuckets() throws IOException {
+        Buckets buckets = new Buckets();
+        assertNull(parse("apikeys-unexpected-fields.json", buckets));
+
+        // other aggregations, the hits and the extra fields are skipped, the dates are sorted, buckets without a
+        // string key and date buckets without a date are left out
+        assertEquals(Map.of(
+                "unsorted", List.of("2024-01-01=5", "2024-01-03=4"),
+                "nodates", List.of()), buckets.usage);
+    }
+
+    @Test
+    void responseWithoutAggregationsHasNoBuckets() throws IOException {
+        Buckets buckets = new Buckets();
+        assertNull(parse("{\"took\":1,\"timed_out\":false,\"hits\":{\"total\":{\"value\":0}}}", buckets));
+        assertTrue(buckets.usage.isEmpty());
+    }
+
+    @Test
+    void rejectsUnexpectedStructure() {
+        assertThrows(JsonParseException.class, () -> parse("[]", new Buckets()));
+        assertThrows(JsonParseException.class,
+                () -> parse("{\"aggregations\":{\"apikeys\":{\"buckets\":{\"key\":\"x\"}}}}", new Buckets()));
+        assertThrows(JsonParseException.class,
+                () -> parse("{\"aggregations\":{\"apikeys\":{\"buckets\":[{\"key\":\"x\",\"date\":{\"buckets\":{}}}]}}}",
+                        new Buckets()));
+    }
+
+    @Test
+    void rejectsTruncatedResponse() throws IOException {
+        String response;
+        try (InputStream in = resource("apikeys-terms.json")) {
+            response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        String truncated = response.substring(0, response.indexOf("\"xyzpersonal\""));
+        assertThrows(IOException.class, () -> parse(truncated, new Buckets()));
+    }
+
+    private Map<String, String> parse(String responseOrResource, Buckets buckets) throws IOException {
+        try (InputStream in = responseOrResource.endsWith(".json")
+                ? resource(responseOrResource)
+                : new ByteArrayInputStream(responseOrResource.getBytes(StandardCharsets.UTF_8))) {
+            return parser.parse(in, buckets);
+        }
+    }
+
+    private static InputStream resource(String name) {
+        InputStream in = ApiKeyAggregationParserTest.class.getResourceAsStream("/elasticsearch/" + name);
+        assertNotNull(in, name);
+        return in;
+    }
+
+    /**
+     * Collects the buckets handed over by the parser, the counts as "date=count" per apikey
+     */
+    private static final class Buckets implements ApiKeyAggregationParser.ApiKeyBucketHandler {
+        private final Map<String, List<String>> usage = new LinkedHashMap<>();
+        private final Map<String, String[]>     dates = new LinkedHashMap<>();
+
+        @Override
+        public void accept(String apikey, String[] dates, int[] counts) {
+            assertEquals(dates.length, counts.length);
+            List<String> days = new ArrayList<>();
+            for (int i = 0; i < dates.length; i++) {
+                days.add(dates[i] + "=" + counts[i]);
+            }
+            usage.put(apikey, days);
+            this.dates.put(apikey, dates);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.model.DayIndex;
+import eu.europeana.api.analytics.model.RegisteredClients;
+import eu.europeana.api.commons.definitions.statistics.user.ELKMetric;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the single pass aggregation with the per metric loops it replaced, kept below as {@link Legacy}
+ */
+class ApiKeyUsageAggregatorTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "1, 500, 31, 5, 5",
+            "2, 500, 30, 10, 3",
+            "3, 2000, 28, 1, 1",
+            "4, 50, 31, 20, 15",
+            "5, 5000, 31, 5, 5"
+    })
+    void matchesLegacyMetrics(long seed, int keys, int days, int callsPerDay, int activeDays) {
+        Random random = new Random(seed);
+        List<ApiKeyStats> stats = newStats(random, keys, days, callsPerDay);
+        RegisteredClients clients = newRegisteredClients(random, stats);
+
+        Legacy legacy = new Legacy(callsPerDay, activeDays);
+        ELKMetric expected = legacy.generate(new ArrayList<>(stats), clients);
+        for (boolean parallel : new boolean[] { false, true }) {
+            ApiKeyUsageAggregator usage = ApiKeyUsageAggregator.aggregate(stats, ClientRegistry.of(clients), days,
+                    callsPerDay, activeDays, parallel);
+            assertEquals(legacy.projectActiveKeysPerMonth, usage.getProjectActiveKeysPerMonth());
+            assertEquals(legacy.projectActiveKeysPerDay, usage.getProjectActiveKeysPerDay());
+            assertEquals(legacy.personalActiveKeysPerMonth, usage.getPersonalActiveKeysPerMonth());
+            assertEquals(legacy.personalActiveKeysPerDay, usage.getPersonalActiveKeysPerDay());
+            assertSameMetric(expected, usage.toELKMetric());
+        }
+    }
+
+    @Test
+    void keepsLegacyCountMinusOne() {
+        // no regular key at all, the legacy metric reports -1
+        DayIndex days = newDayIndex(31);
+        List<ApiKeyStats> stats = new ArrayList<>();
+        stats.add(newStat("project", days, 0));
+        stats.add(newStat("personal", days, 1));
+        stats.add(newStat("internal", days, 1000));
+        RegisteredClients clients = newRegisteredClients(List.of("project"), List.of("internal"));
+
+        Legacy legacy = new Legacy(5, 5);
+        ELKMetric expected = legacy.generate(new ArrayList<>(stats), clients);
+        ELKMetric actual = ApiKeyUsageAggregator.aggregate(stats, ClientRegistry.of(clients), 31, 5, 5, false)
+                .toELKMetric();
+        assertEquals(-1, expected.getRegularCustomer());
+        assertEquals(-1, expected.getRegularUser());
+        assertSameMetric(expected, actual);
+    }
+
+    @Test
+    void excludesInternalClientsRegisteredAsProjects() {
+        DayIndex days = newDayIndex(31);
+        List<ApiKeyStats> stats = new ArrayList<>();
+        stats.add(newStat("both", days, 100));
+        stats.add(newStat("project", days, 100));
+        stats.add(newStat("personal", days, 100));
+        RegisteredClients clients = newRegisteredClients(List.of("both", "project"), List.of("both"));
+
+        ELKMetric expected = new Legacy(5, 5).generate(new ArrayList<>(stats), clients);
+        ELKMetric actual = ApiKeyUsageAggregator.aggregate(stats, ClientRegistry.of(clients), 31, 5, 5, false)
+                .toELKMetric();
+        assertEquals(1, actual.getAllCustomer());
+        assertEquals(3100, actual.getInternalClientUsage());
+        assertSameMetric(expected, actual);
+    }
+
+    private static void assertSameMetric(ELKMetric expected, ELKMetric actual) {
+        assertEquals(expected.getRegularCustomer(), actual.getRegularCustomer(), "regular customer");
+        assertEquals(expected.getAllCustomer(), actual.getAllCustomer(), "all customer");
+        assertEquals(expected.getRegularUser(), actual.getRegularUser(), "regular user");
+        assertEquals(expected.getAllUser(), actual.getAllUser(), "all user");
+        assertEquals(expected.getAll(), actual.getAll(), "all");
+        assertEquals(expected.getExternalClientUsage(), actual.getExternalClientUsage(), "external usage");
+        assertEquals(expected.getInternalClientUsage(), actual.getInternalClientUsage(), "internal usage");
+    }
+
+    /**
+     * Apikeys with a mix of idle, occasional and regular usage, so every threshold splits them
+     */
+    private static List<ApiKeyStats> newStats(Random random, int keys, int days, int callsPerDay) {
+        DayIndex dayIndex = newDayIndex(days);
+        List<ApiKeyStats> stats = new ArrayList<>(keys);
+        for (int key = 0; key < keys; key++) {
+            ApiKeyStats stat = new ApiKeyStats("key" + key, dayIndex);
+            double usedDays = random.nextDouble();
+            int peak = 1 + random.nextInt(3 * callsPerDay);
+            int total  = 0;
+            int active = 0;
+            for (int day = 0; day < days; day++) {
+                int count = (random.nextDouble() < usedDays ? random.nextInt(peak + 1) : 0);
+                stat.setCount(day, count);
+                total  += count;
+                active += (count >= callsPerDay ? 1 : 0);
+            }
+            stat.setTotal(total);
+            stat.setActive(active);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    /**
+     * About 10% internal and 30% project clients, some registered apikeys have no usage and a few apikeys are
+     * registered as both internal and project client
+     */
+    private static RegisteredClients newRegisteredClients(Random random, List<ApiKeyStats> stats) {
+        List<String> projects = new ArrayList<>(List.of("unused-project"));
+        List<String> internal = new ArrayList<>(List.of("unused-internal"));
+        for (ApiKeyStats stat : stats) {
+            double type = random.nextDouble();
+            if (type < 0.02) {
+                projects.add(stat.getApiKey());
+                internal.add(stat.getApiKey());
+            } else if (type < 0.1) {
+                internal.add(stat.getApiKey());
+            } else if (type < 0.4) {
+                projects.add(stat.getApiKey());
+            }
+        }
+        return newRegisteredClients(projects, internal);
+    }
+
+    private static RegisteredClients newRegisteredClients(List<String> projects, List<String> internal) {
+        RegisteredClients clients = new RegisteredClients();
+        clients.setProjects(projects);
+        clients.setInternal(internal);
+        return clients;
+    }
+
+    private static ApiKeyStats newStat(String apikey, DayIndex days, int callsPerDay) {
+        ApiKeyStats stat = new ApiKeyStats(apikey, days);
+        for (int day = 0; day < days.size(); day++) {
+            stat.setCount(day, callsPerDay);
+        }
+        stat.setTotal(callsPerDay * days.size());
+        stat.setActive(callsPerDay >= 5 ? days.size() : 0);
+        return stat;
+    }
+
+    private static DayIndex newDayIndex(int days) {
+        List<String> dayList = new ArrayList<>();
+        for (int day = 1; day <= days; day++) {
+            dayList.add(String.format("2024-01-%02d", day));
+        }
+        return new DayIndex(dayList);
+    }
+
+    /**
+     * The monthly metric as it was computed before the single pass aggregation, one loop per metric
+     */
+    private static final class Legacy {
+
+        private final int callsPerDay;
+        private final int activeDays;
+
+        private int projectActiveKeysPerMonth;
+        private int projectActiveKeysPerDay;
+        private int personalActiveKeysPerMonth;
+        private int personalActiveKeysPerDay;
+
+        private Legacy(int callsPerDay, int activeDays) {
+            this.callsPerDay = callsPerDay;
+            this.activeDays  = activeDays;
+        }
+
+        private ELKMetric generate(List<ApiKeyStats> list, RegisteredClients registeredClients) {
+            int totalInternalTraffic = getInternalClientUsage(list, registeredClients.getInternal());
+            int totalExternalTraffic = getExternalClientUsage(list, registeredClients.getInternal());
+
+            removeInternalClients(list, registeredClients.getInternal());
+
+            List<ApiKeyStats> projectClients  = new ArrayList<>();
+            List<ApiKeyStats> personalClients = new ArrayList<>();
+            fetchProjectAndPersonalClients(list, registeredClients.getProjects(), projectClients, personalClients);
+
+            projectActiveKeysPerMonth  = getActiveKeysPerMonth(projectClients);
+            projectActiveKeysPerDay    = getActiveKeysPerDay(projectClients);
+            personalActiveKeysPerMonth = getActiveKeysPerMonth(personalClients);
+            personalActiveKeysPerDay   = getActiveKeysPerDay(personalClients);
+
+            int regularCustomer = Math.max(projectActiveKeysPerDay, projectActiveKeysPerMonth);
+            int regularUser     = Math.max(personalActiveKeysPerDay, personalActiveKeysPerMonth);
+            return new ELKMetric(regularCustomer, projectClients.size(),
+                    regularUser, personalClients.size(),
+                    list.size(),
+                    totalExternalTraffic,
+                    totalInternalTraffic);
+        }
+
+        private static void removeInternalClients(List<ApiKeyStats> list, List<String> internalClients) {
+            List<ApiKeyStats> internalClientStats = list.stream().filter(
+                    key -> internalClients.stream().anyMatch(
+                            internal -> internal.equals(key.getApiKey()))).toList();
+            list.removeAll(internalClientStats);
+        }
+
+        private static void fetchProjectAndPersonalClients(List<ApiKeyStats> list, List<String> projects,
+                                                           List<ApiKeyStats> projectClients, List<ApiKeyStats> personalClients) {
+            for (ApiKeyStats stat : list) {
+                if (projects.contains(stat.getApiKey())) {
+                    projectClients.add(stat);
+                } else {
+                    personalClients.add(stat);
+                }
+            }
+        }
+
+        private int getActiveKeysPerDay(List<ApiKeyStats> list) {
+            int count = 0;
+            for (ApiKeyStats stat : list) {
+                count += (stat.getActive() >= activeDays ? 1 : 0);
+            }
+            return (count - 1);
+        }
+
+        private int getActiveKeysPerMonth(List<ApiKeyStats> list) {
+            int count = 0;
+            int days  = list.get(0).getDays().size();
+            int thold = days * callsPerDay;
+            for (ApiKeyStats stat : list) {
+                count += (stat.getTotal() >= thold ? 1 : 0);
+            }
+            return (count - 1);
+        }
+
+        private static int getInternalClientUsage(List<ApiKeyStats> list, List<String> internalClients) {
+            int traffic = 0;
+            for (ApiKeyStats stats : list) {
+                if (internalClients.contains(stats.getApiKey())) {
+                    traffic += stats.getTotal();
+                }
+            }
+            return traffic;
+        }
+
+        private static int getExternalClientUsage(List<ApiKeyStats> list, List<String> internalClients) {
+            int traffic = 0;
+            for (ApiKeyStats stats : list) {
+                if (!internalClients.contains(stats.getApiKey())) {
+                    traffic += stats.getTotal();
+                }
+            }
+            return traffic;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package eu.europeana.api.analytics.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import eu.europeana.api.analytics.model.DataboxKpi;
+import eu.europeana.api.analytics.model.OutboxEntry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility.NONE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DataboxOutboxTest {
+
+    @TempDir
+    Path directory;
+
+    private Path file;
+    private DataboxOutbox outbox;
+
+    @BeforeEach
+    void setUp() {
+        file   = directory.resolve("outbox.jsonl");
+        outbox = new DataboxOutbox(file.toFile(), newMapper());
+    }
+
+    @Test
+    void replaysUndeliveredRequests() throws IOException {
+        String delivered = outbox.append("sets", List.of(new DataboxKpi("Sets", 1)));
+        outbox.markDelivered(delivered);
+        String undelivered = outbox.append("entities", List.of(new DataboxKpi("Entities", 2)));
+
+        List<OutboxEntry> replay = outbox.getReplay();
+        assertEquals(List.of(undelivered), replay.stream().map(OutboxEntry::getId).toList());
+        assertEquals(2, replay.get(0).getKpis().get(0).getValue().intValue());
+    }
+
+    @Test
+    void replaysRequestAppendedAfterTornWrite() throws IOException {
+        String before = outbox.append("sets", List.of(new DataboxKpi("Sets", 1)));
+        // a crash while writing the next entry leaves an incomplete last line
+        Files.write(file, "{\"type\":\"request\",\"id\":\"torn\",\"kpis\":[{\"key\":\"Lo".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        String after = outbox.append("entities", List.of(new DataboxKpi("Entities", 2)));
+        outbox.markDelivered(before);
+
+        List<OutboxEntry> replay = outbox.getReplay();
+        assertEquals(List.of(after), replay.stream().map(OutboxEntry::getId).toList());
+        assertEquals("Entities", replay.get(0).getKpis().get(0).getKey());
+        assertTrue(outbox.getUndelivered().stream().noneMatch(entry -> entry.getId().equals(before)));
+    }
+
+    @Test
+    void compactKeepsOutboxWithRequestAfterTornWrite() throws IOException {
+        Files.write(file, "{\"type\":\"delivered\",\"id\":\"x".getBytes(StandardCharsets.UTF_8));
+        String request = outbox.append("entities", List.of(new DataboxKpi("Entities", 2)));
+
+        outbox.compact();
+        assertEquals(List.of(request), outbox.getUndelivered().stream().map(OutboxEntry::getId).toList());
+        outbox.markDelivered(request);
+        outbox.compact();
+        assertTrue(Files.notExists(file));
+    }
+
+    /**
+     * Same visibility as the application mapper, only the annotated properties are (de)serialized
+     */
+    private static ObjectMapper newMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setVisibility(mapper.getVisibilityChecker()
+                .withCreatorVisibility(NONE)
+                .withFieldVisibility(NONE)
+                .withGetterVisibility(NONE)
+                .withIsGetterVisibility(NONE)
+                .withSetterVisibility(NONE));
+        return mapper;
+    }
+}
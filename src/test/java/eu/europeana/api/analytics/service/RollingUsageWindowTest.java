@@ -0,0 +1,152 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.model.ClientType;
+import eu.europeana.api.analytics.model.RegisteredClients;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RollingUsageWindowTest {
+
+    private static final int       DAYS          = 7;
+    private static final int       CALLS_PER_DAY = 5;
+    private static final LocalDate START         = LocalDate.of(2024, 2, 20);
+
+    @TempDir
+    Path directory;
+
+    private ApiKeyUsageStore store;
+    private Random random;
+    private int rebuilds;
+
+    @BeforeEach
+    void setUp() {
+        store  = new ApiKeyUsageStore(directory.resolve("store").toFile(), 365);
+        random = new Random(42L);
+    }
+
+    @Test
+    void movingDayByDayMatchesRebuild() throws IOException {
+        storeDays(START, START.plusDays(40));
+        RollingUsageWindow window = newWindow("incremental");
+        for (LocalDate end = START.plusDays(DAYS); !end.isAfter(START.plusDays(40)); end = end.plusDays(1)) {
+            window.moveTo(store, end);
+            assertMatchesRebuild(window, end);
+        }
+    }
+
+    @Test
+    void movingSeveralDaysMatchesRebuild() throws IOException {
+        storeDays(START, START.plusDays(40));
+        RollingUsageWindow window = newWindow("incremental");
+        for (int step : new int[] { 0, 3, 1, DAYS - 1, 2, DAYS, 5 }) {
+            LocalDate end = START.plusDays(DAYS + 10L).plusDays(step);
+            window.moveTo(store, end);
+            assertMatchesRebuild(window, end);
+        }
+    }
+
+    @Test
+    void movingFromSavedStateMatchesRebuild() throws IOException {
+        storeDays(START, START.plusDays(20));
+        newWindow("incremental").moveTo(store, START.plusDays(10));
+        // a new instance continues from the state file of the previous run
+        RollingUsageWindow window = newWindow("incremental");
+        window.moveTo(store, START.plusDays(12));
+        assertMatchesRebuild(window, START.plusDays(12));
+    }
+
+    @Test
+    void movingOverMissingAndLateDaysMatchesRebuild() throws IOException {
+        LocalDate missing = START.plusDays(9);
+        storeDays(START, missing);
+        storeDays(missing.plusDays(1), START.plusDays(20));
+        RollingUsageWindow window = newWindow("incremental");
+        window.moveTo(store, missing.plusDays(2));
+        assertMatchesRebuild(window, missing.plusDays(2));
+
+        // the missing day is caught up while it is still in the window
+        storeDays(missing, missing.plusDays(1));
+        window.moveTo(store, missing.plusDays(3));
+        assertMatchesRebuild(window, missing.plusDays(3));
+        window.moveTo(store, START.plusDays(20));
+        assertMatchesRebuild(window, START.plusDays(20));
+    }
+
+    @Test
+    void activeDaysAreNotScaledToTheWindow() throws IOException {
+        // one busy day, for a threshold of 2 active days
+        ApiKeyUsageStore.DayUsage usage = new ApiKeyUsageStore.DayUsage();
+        usage.accept("busy", new String[] { START.toString() }, new int[] { 1000 });
+        store.writeDay(START, usage);
+        RollingUsageWindow window = newWindow("incremental");
+        window.moveTo(store, START.plusDays(1));
+
+        ApiKeyUsageAggregator aggregator = window.aggregate(registry(), 2);
+        assertEquals(0, aggregator.getActiveKeysPerDay(ClientType.PERSONAL));
+        assertEquals(1, aggregator.getActiveKeysPerMonth(ClientType.PERSONAL));
+    }
+
+    @Test
+    void emptyWindowHasNoActiveKeys() throws IOException {
+        RollingUsageWindow window = newWindow("incremental");
+        window.moveTo(store, START);
+
+        ApiKeyUsageAggregator aggregator = window.aggregate(registry(), 1);
+        for (ClientType type : List.of(ClientType.PROJECT, ClientType.PERSONAL)) {
+            assertEquals(0, aggregator.getActiveKeysPerDay(type));
+            assertEquals(0, aggregator.getActiveKeysPerMonth(type));
+        }
+    }
+
+    private RollingUsageWindow newWindow(String name) {
+        return new RollingUsageWindow(DAYS, CALLS_PER_DAY, directory.resolve(name + ".state"));
+    }
+
+    private void assertMatchesRebuild(RollingUsageWindow window, LocalDate end) throws IOException {
+        RollingUsageWindow rebuilt = newWindow("rebuild-" + rebuilds++);
+        rebuilt.moveTo(store, end);
+        assertEquals(toComparable(rebuilt.getUsage()), toComparable(window.getUsage()), "window ending " + end);
+    }
+
+    /**
+     * Stores the usage of 50 apikeys for the days, every apikey is used on about half of the days
+     */
+    private void storeDays(LocalDate from, LocalDate to) throws IOException {
+        for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+            ApiKeyUsageStore.DayUsage usage = new ApiKeyUsageStore.DayUsage();
+            String[] date = { day.toString() };
+            for (int key = 0; key < 50; key++) {
+                if (random.nextBoolean()) {
+                    usage.accept("key" + key, date, new int[] { 1 + random.nextInt(2 * CALLS_PER_DAY) });
+                }
+            }
+            store.writeDay(day, usage);
+        }
+    }
+
+    private static Map<String, List<Integer>> toComparable(Map<String, int[]> usage) {
+        Map<String, List<Integer>> comparable = new TreeMap<>();
+        usage.forEach((apikey, calls) -> comparable.put(apikey, Arrays.stream(calls).boxed().toList()));
+        return comparable;
+    }
+
+    private static ClientRegistry registry() {
+        RegisteredClients clients = new RegisteredClients();
+        clients.setProjects(List.of());
+        clients.setInternal(List.of());
+        return ClientRegistry.of(clients);
+    }
+}
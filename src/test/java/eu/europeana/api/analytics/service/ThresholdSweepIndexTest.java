@@ -0,0 +1,129 @@
+package eu.europeana.api.analytics.service;
+
+import eu.europeana.api.analytics.model.ApiKeyStats;
+import eu.europeana.api.analytics.model.ClientRegistry;
+import eu.europeana.api.analytics.model.ClientType;
+import eu.europeana.api.analytics.model.DayIndex;
+import eu.europeana.api.analytics.model.RegisteredClients;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ThresholdSweepIndexTest {
+
+    private static final int DAYS              = 30;
+    private static final int MAX_CALLS_PER_DAY = 12;
+
+    @Test
+    void matchesAggregationForEveryThreshold() {
+        Random random = new Random(7L);
+        List<ApiKeyStats> list = newStats(random, 300);
+        ClientRegistry registry = newRegistry(random, list);
+
+        ThresholdSweepIndex index = new ThresholdSweepIndex(list, registry, DAYS, MAX_CALLS_PER_DAY);
+        for (int callsPerDay = 1; callsPerDay <= MAX_CALLS_PER_DAY; callsPerDay++) {
+            for (int activeDays = 1; activeDays <= DAYS; activeDays++) {
+                List<ApiKeyStats> stats = withActiveDays(list, callsPerDay);
+                ApiKeyUsageAggregator usage = ApiKeyUsageAggregator.aggregate(stats, registry, DAYS, callsPerDay,
+                        activeDays, false);
+                for (ClientType type : List.of(ClientType.PROJECT, ClientType.PERSONAL)) {
+                    String thresholds = type + " " + callsPerDay + " calls, " + activeDays + " days";
+                    assertEquals(usage.getActiveKeysPerDay(type), index.getActiveKeysPerDay(type, callsPerDay, activeDays),
+                            thresholds);
+                    assertEquals(usage.getActiveKeysPerMonth(type), index.getActiveKeysPerMonth(type, callsPerDay),
+                            thresholds);
+                }
+            }
+        }
+    }
+
+    @Test
+    void leavesOutInternalClients() {
+        DayIndex days = newDayIndex();
+        ApiKeyStats internal = new ApiKeyStats("internal", days);
+        for (int day = 0; day < DAYS; day++) {
+            internal.setCount(day, 100);
+        }
+        internal.setTotal(100 * DAYS);
+        RegisteredClients clients = new RegisteredClients();
+        clients.setProjects(List.of("internal"));
+        clients.setInternal(List.of("internal"));
+
+        ThresholdSweepIndex index = new ThresholdSweepIndex(List.of(internal), ClientRegistry.of(clients), DAYS,
+                MAX_CALLS_PER_DAY);
+        for (ClientType type : List.of(ClientType.PROJECT, ClientType.PERSONAL)) {
+            assertEquals(0, index.getActiveKeysPerDay(type, 1, 1));
+            assertEquals(0, index.getActiveKeysPerMonth(type, 1));
+        }
+    }
+
+    /**
+     * Copies of the statistics with the active days counted at the given calls per day
+     */
+    private static List<ApiKeyStats> withActiveDays(List<ApiKeyStats> list, int callsPerDay) {
+        List<ApiKeyStats> stats = new ArrayList<>(list.size());
+        for (ApiKeyStats stat : list) {
+            ApiKeyStats copy = new ApiKeyStats(stat.getApiKey(), stat.getDays());
+            int active = 0;
+            for (int day = 0; day < DAYS; day++) {
+                copy.setCount(day, stat.getCount(day));
+                active += (stat.getCount(day) >= callsPerDay ? 1 : 0);
+            }
+            copy.setTotal(stat.getTotal());
+            copy.setActive(active);
+            stats.add(copy);
+        }
+        return stats;
+    }
+
+    private static List<ApiKeyStats> newStats(Random random, int keys) {
+        DayIndex days = newDayIndex();
+        List<ApiKeyStats> list = new ArrayList<>(keys);
+        for (int key = 0; key < keys; key++) {
+            ApiKeyStats stat = new ApiKeyStats("key" + key, days);
+            double usedDays = random.nextDouble();
+            int peak = 1 + random.nextInt(2 * MAX_CALLS_PER_DAY);
+            int total = 0;
+            for (int day = 0; day < DAYS; day++) {
+                int count = (random.nextDouble() < usedDays ? random.nextInt(peak + 1) : 0);
+                stat.setCount(day, count);
+                total += count;
+            }
+            stat.setTotal(total);
+            list.add(stat);
+        }
+        return list;
+    }
+
+    /**
+     * About 10% internal and 30% project clients
+     */
+    private static ClientRegistry newRegistry(Random random, List<ApiKeyStats> list) {
+        List<String> projects = new ArrayList<>();
+        List<String> internal = new ArrayList<>();
+        for (ApiKeyStats stat : list) {
+            double type = random.nextDouble();
+            if (type < 0.1) {
+                internal.add(stat.getApiKey());
+            } else if (type < 0.4) {
+                projects.add(stat.getApiKey());
+            }
+        }
+        RegisteredClients clients = new RegisteredClients();
+        clients.setProjects(projects);
+        clients.setInternal(internal);
+        return ClientRegistry.of(clients);
+    }
+
+    private static DayIndex newDayIndex() {
+        List<String> days = new ArrayList<>();
+        for (int day = 1; day <= DAYS; day++) {
+            days.add(String.format("2024-04-%02d", day));
+        }
+        return new DayIndex(days);
+    }
+}
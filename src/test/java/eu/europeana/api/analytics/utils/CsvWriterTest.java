@@ -0,0 +1,59 @@
+package eu.europeana.api.analytics.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CsvWriterTest {
+
+    @Test
+    void closesStreamWhenGzipHeaderFails() {
+        FailingStream out = new FailingStream(false);
+        IOException e = assertThrows(IOException.class, () -> new CsvWriter(out, true));
+        assertEquals("disk full", e.getMessage());
+        assertTrue(out.closed);
+    }
+
+    @Test
+    void keepsCloseErrorOfFailedStream() {
+        FailingStream out = new FailingStream(true);
+        IOException e = assertThrows(IOException.class, () -> new CsvWriter(out, true));
+        assertEquals("disk full", e.getMessage());
+        assertEquals("close failed", e.getSuppressed()[0].getMessage());
+    }
+
+    /**
+     * Stream which can not be written, like a full disk
+     */
+    private static final class FailingStream extends OutputStream {
+        private final boolean failClose;
+        private boolean closed;
+
+        private FailingStream(boolean failClose) {
+            this.failClose = failClose;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (failClose) {
+                throw new IOException("close failed");
+            }
+        }
+    }
+}